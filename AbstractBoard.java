@@ -0,0 +1,1367 @@
+// AbstractBoard.java
+
+import java.util.Arrays;
+
+/**
+ * The parts shared by the bitboard {@link Board} implementations,
+ * BitBoard and WideBoard. The grid itself is an array of 64-bit
+ * words, rows[], holding the rows with a fixed number of words per
+ * row, whose meaning is up to the subclass; this class keeps the
+ * column heights, the max height and the hash next to it, and
+ * implements clearRows(), insertGarbage(), undo and checkpoints on
+ * top of them. checkPlace(), move() and enumeratePlacements() are
+ * written here too, against a few row and cell hooks -- rowFull(),
+ * rowFullWith(), rowHits(), filled() and flipCell() -- that the
+ * subclasses implement on their own layout of the words.
+ *
+ * <p>
+ * rows[] is a ring buffer: row y lives in slot (base + y) mod the
+ * number of slots, which is a power of two. Dropping rows from the
+ * bottom or inserting rows under the stack moves base instead of
+ * the rows above, so clearRows() only copies the rows on the smaller
+ * side of the cleared ones and insertGarbage() only writes the new
+ * rows. Only the rows that have ever held blocks are allocated: the
+ * ring starts with room for a few dozen rows and doubles when a piece
+ * is placed above its end, up to the declared height. Everything
+ * above it reads as empty through word(). A 10 x 1,000,000
+ * "marathon" board thus costs memory for the height actually
+ * reached, and since every loop over the grid is bounded by the max
+ * height, per-move costs do not depend on the declared height either.
+ *
+ * <p>
+ * Undo is driven by a journal: before a word of the grid, a column
+ * height, the max height, the hash or base is changed, its old value
+ * is appended to the journal, and undo() replays the journal
+ * backwards. Grid words are journaled by row and word number, not by
+ * slot, so the entries stay valid when the ring grows. The cost of an
+ * undo is therefore proportional to the size of the change rather
+ * than to the size of the board.
+ *
+ * <p>
+ * On top of the journal, checkpoint() opens nested undo levels for
+ * search code: any number of place/clearRows/commit steps can be
+ * made after a checkpoint and then backed out with rollback() or
+ * rollbackTo(), without copying the board.
+ *
+ * <p>
+ * With feature tracking on, the evaluation features of Board --
+ * holes, aggregate height, bumpiness, row and column transitions and
+ * well depths -- are kept as running sums, updated from the old and
+ * new value of each word or height as it is set: a word only changes
+ * the transitions within its row and with the rows just below and
+ * above it, a height only the terms of its column and its two
+ * neighbours. The sums are journaled once per operation, next to the
+ * hash, so undo and rollback restore them with everything else.
+ */
+abstract class AbstractBoard implements Board {
+    final int width;
+    final int height;
+    final int words;
+    long[] rows;
+    int rowMask;
+    int base;
+    boolean DEBUG = false;
+    boolean committed;
+    int maxHeight;
+    int[] heights;
+    long hash;
+
+    // Every full row is in fullLow to fullHigh - 1 -- the rows filled
+    // by place() or move() since the last clearRows()
+    private int fullLow;
+    private int fullHigh;
+
+    // Rows changed since the last resetDirtyRows(), for the display --
+    // not journaled, since undoing a change changes the rows again
+    private int dirtyStart;
+    private int dirtyEnd;
+
+    // The evaluation features while tracking is on. Rows count their
+    // row transitions less the 2 of an empty row, and columns their
+    // column transitions less the 1 of an empty column, so that an
+    // empty board has all sums 0; the getters add those back.
+    private boolean tracking;
+    private int blocks;
+    private int aggregateHeight;
+    private int bumpiness;
+    private int wellDepths;
+    private int rowTransitions;
+    private int columnTransitions;
+
+    // Undo journal -- parallel arrays of (what changed, old value).
+    // A key >= 0 is word k of row y, as y << wordBits | k, ~x is the
+    // height of column x, MAX_HEIGHT_KEY is the max height, HASH_KEY
+    // the hash, BASE_KEY the ring offset, FULL_ROWS_KEY the range
+    // of possibly full rows and FEATURES_KEY the feature sums, two
+    // to an entry.
+    private static final int MAX_HEIGHT_KEY = Integer.MIN_VALUE;
+    private static final int HASH_KEY = Integer.MIN_VALUE + 1;
+    private static final int BASE_KEY = Integer.MIN_VALUE + 2;
+    private static final int FULL_ROWS_KEY = Integer.MIN_VALUE + 3;
+    private static final int FEATURES_KEY = Integer.MIN_VALUE + 4;    // to FEATURES_KEY + 2
+    private static final int INITIAL_JOURNAL_SIZE = 64;
+    private static final int INITIAL_CHECKPOINTS_SIZE = 8;
+    private static final int INITIAL_ROWS = 32;
+    private final int wordBits;
+    private int[] journalKeys;
+    private long[] journalValues;
+    private int journalSize;
+
+    // Journal position of the last commit, and of each open checkpoint
+    private int commitMark;
+    private int[] checkpoints;
+    private int checkpointDepth;
+
+    // Shape of the piece being enumerated by enumeratePlacements(),
+    // the piece's own row masks and hat, and the rows already full
+    private long[] shapeRows;
+    private int[] shapeTops;
+    private int[] fullRowsScratch = new int[0];
+
+
+    /**
+     * Creates an empty board of the given width and height
+     * measured in blocks, with the given number of grid words per row.
+     */
+    AbstractBoard(int width, int height, int words) {
+        this.width = width;
+        this.height = height;
+        this.words = words;
+        this.wordBits = Integer.SIZE - Integer.numberOfLeadingZeros(words - 1);
+        this.rows = new long[ringSize(Math.min(height, INITIAL_ROWS)) * words];
+        this.rowMask = rows.length / words - 1;
+        this.base = 0;
+        this.committed = true;
+        resetDirtyRows();
+
+        this.maxHeight = 0;
+        this.heights = new int[width];
+
+        this.journalKeys = new int[INITIAL_JOURNAL_SIZE];
+        this.journalValues = new long[INITIAL_JOURNAL_SIZE];
+        this.journalSize = 0;
+
+        this.commitMark = 0;
+        this.checkpoints = new int[INITIAL_CHECKPOINTS_SIZE];
+        this.checkpointDepth = 0;
+    }
+
+
+    /**
+     * Returns the width of the board in blocks.
+     */
+    public int getWidth() {
+        return this.width;
+    }
+
+
+    /**
+     * Returns the height of the board in blocks.
+     */
+    public int getHeight() {
+        return this.height;
+    }
+
+
+    /**
+     * Returns the max column height present in the board.
+     * For an empty board this is 0.
+     */
+    public int getMaxHeight() {
+        return this.maxHeight;
+    }
+
+
+    /**
+     * Given a piece and an x, returns the y
+     * value where the piece would come to rest
+     * if it were dropped straight down at that x.
+     *
+     * <p>
+     * Implementation: use the skirt and the col heights
+     * to compute this fast -- O(skirt length).
+     */
+    public int dropHeight(Piece piece, int x) {
+        int y = 0;
+        int[] pieceSkirt = piece.getSkirt();
+
+        for (int i = 0; i < pieceSkirt.length; i++) {
+            int currY = getColumnHeight(x + i) - pieceSkirt[i];
+
+            if (currY > y) {
+                y = currY;
+            }
+        }
+
+        return y;
+    }
+
+
+    /**
+     * Returns the height of the given column --
+     * i.e. the y value of the highest block + 1.
+     * The height is 0 if the column contains no blocks.
+     */
+    public int getColumnHeight(int x) {
+        return this.heights[x];
+    }
+
+
+    /**
+     * Returns a 64-bit hash of the blocks in the board: the sum of
+     * wordHash(k, word) * P^y over the words of every row y, modulo
+     * 2^64, where P is the odd constant HASH_BASE. Empty words
+     * contribute nothing, so boards of the same size holding the same
+     * blocks have the same hash. The hash is kept up to date at the
+     * cost of one key per word changed; moving every row up or down n
+     * rows only multiplies it by P^n or P^-n.
+     */
+    public long getHash() {
+        return this.hash;
+    }
+
+    /**
+     * Returns the lowest row whose blocks may have changed since the
+     * last resetDirtyRows(). Every word written to the grid, and every
+     * word an undo puts back, widens the range by its row; turning the
+     * ring marks every row of the stack.
+     */
+    public int getDirtyRowStart() {
+        return dirtyStart;
+    }
+
+    /**
+     * Returns one past the highest row whose blocks may have changed
+     * since the last resetDirtyRows().
+     */
+    public int getDirtyRowEnd() {
+        return dirtyEnd;
+    }
+
+    /**
+     * Empties the range of changed rows.
+     */
+    public void resetDirtyRows() {
+        dirtyStart = height;
+        dirtyEnd = 0;
+    }
+
+    void markDirty(int start, int end) {
+        if (start < dirtyStart) dirtyStart = start;
+        if (end > dirtyEnd) dirtyEnd = end;
+    }
+
+
+    /**
+     * Turns on or off keeping the evaluation features up to date.
+     * Turning it on needs a committed board with no open checkpoints.
+     */
+    public void setFeatureTracking(boolean tracking) {
+        if (tracking && !this.tracking) {
+            if (!committed || checkpointDepth > 0) {
+                throw new RuntimeException("setFeatureTracking commit problem");
+            }
+
+            computeFeatures();
+        }
+
+        this.tracking = tracking;
+    }
+
+    public boolean isFeatureTracking() {
+        return tracking;
+    }
+
+    public int getHoles() {
+        return tracking ? aggregateHeight - blocks : Board.super.getHoles();
+    }
+
+    public int getAggregateHeight() {
+        return tracking ? aggregateHeight : Board.super.getAggregateHeight();
+    }
+
+    public int getBumpiness() {
+        return tracking ? bumpiness : Board.super.getBumpiness();
+    }
+
+    public int getRowTransitions() {
+        return tracking ? rowTransitions + 2 * maxHeight : Board.super.getRowTransitions();
+    }
+
+    public int getColumnTransitions() {
+        return tracking ? columnTransitions + width : Board.super.getColumnTransitions();
+    }
+
+    public int getWellDepths() {
+        return tracking ? wellDepths : Board.super.getWellDepths();
+    }
+
+    /*
+     Computes the feature sums from scratch, for when tracking starts
+     or the whole grid has been replaced.
+    */
+    void computeFeatures() {
+        blocks = 0;
+        for (int y = 0; y < maxHeight; y++) {
+            blocks += rowBlocks(y);
+        }
+
+        aggregateHeight = Board.super.getAggregateHeight();
+        bumpiness = Board.super.getBumpiness();
+        wellDepths = Board.super.getWellDepths();
+        rowTransitions = Board.super.getRowTransitions() - 2 * maxHeight;
+        columnTransitions = Board.super.getColumnTransitions() - width;
+    }
+
+    /*
+     True if the feature sums are tracked and wrong, for the debug
+     checks.
+    */
+    boolean incorrectFeatures() {
+        return tracking && (getHoles() != Board.super.getHoles()
+                || aggregateHeight != Board.super.getAggregateHeight()
+                || bumpiness != Board.super.getBumpiness()
+                || wellDepths != Board.super.getWellDepths()
+                || getRowTransitions() != Board.super.getRowTransitions()
+                || getColumnTransitions() != Board.super.getColumnTransitions());
+    }
+
+    private int rowBlocks(int y) {
+        int count = 0;
+        for (int k = 0; k < words; k++) {
+            count += Long.bitCount(word(y, k));
+        }
+
+        return count;
+    }
+
+    /*
+     Updates the sums for word k of row y going from old to value.
+     Only the transitions between the blocks of the word and their
+     left neighbours change, with the first block of the next word,
+     and with the blocks just below and above.
+    */
+    private void wordChanged(int y, int k, long old, long value) {
+        final long full = fullWord(k);
+        blocks += Long.bitCount(value) - Long.bitCount(old);
+
+        final long left = k == 0 ? 1 : word(y, k - 1) >>> (Long.SIZE - 1);
+        rowTransitions += wordTransitions(k, value, left) - wordTransitions(k, old, left);
+        if (k + 1 < words) {
+            final long right = word(y, k + 1) & 1;
+            rowTransitions += (int) ((value >>> (Long.SIZE - 1) ^ right) - (old >>> (Long.SIZE - 1) ^ right));
+        }
+
+        // the floor is filled, the rows above the allocated ones empty
+        final long below = y == 0 ? full : word(y - 1, k);
+        final long above = word(y + 1, k);
+        columnTransitions += Long.bitCount((value ^ below) & full) - Long.bitCount((old ^ below) & full)
+                + Long.bitCount((value ^ above) & full) - Long.bitCount((old ^ above) & full);
+    }
+
+    /*
+     The row transitions between each block of word k holding value
+     and its left neighbour, left being the bit before the word, and
+     with the right wall after the last word.
+    */
+    private int wordTransitions(int k, long value, long left) {
+        final long full = fullWord(k);
+        int transitions = Long.bitCount((value ^ (value << 1 | left)) & full);
+        if (k == words - 1 && (value & Long.highestOneBit(full)) == 0) {
+            transitions++;
+        }
+
+        return transitions;
+    }
+
+    /*
+     Adds (sign 1) or takes away (sign -1) the terms of the sums that
+     depend on the height of column x: its height, its differences
+     with its neighbours and the well depths of all three.
+    */
+    private void heightTerms(int x, int sign) {
+        int terms = 0;
+        if (x > 0) {
+            terms += Math.abs(heights[x - 1] - heights[x]);
+        }
+        if (x + 1 < width) {
+            terms += Math.abs(heights[x] - heights[x + 1]);
+        }
+        aggregateHeight += sign * heights[x];
+        bumpiness += sign * terms;
+
+        int wells = 0;
+        for (int c = Math.max(0, x - 1); c <= Math.min(width - 1, x + 1); c++) {
+            wells += getWellDepth(c);
+        }
+        wellDepths += sign * wells;
+    }
+
+    private void saveFeatures() {
+        record(FEATURES_KEY, pack(blocks, aggregateHeight));
+        record(FEATURES_KEY + 1, pack(bumpiness, wellDepths));
+        record(FEATURES_KEY + 2, pack(rowTransitions, columnTransitions));
+    }
+
+    private static long pack(int high, int low) {
+        return (long) high << Integer.SIZE | (low & 0xFFFFFFFFL);
+    }
+
+    /*
+     The key of word k of a row holding the given mask, before its
+     weight P^y. Instead of a table of random numbers, the keys come
+     from the SplitMix64 finalizer, so they exist for any board size.
+     It is a bijection taking 0 to 0, so only empty words have key 0.
+    */
+    static long wordHash(int k, long mask) {
+        long z = mask * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return Long.rotateLeft(z ^ (z >>> 31), k);
+    }
+
+    static final long HASH_BASE = 0xD1B54A32D192ED03L;
+    private static final long HASH_BASE_INVERSE = inverse(HASH_BASE);
+
+    // P^y for the rows seen so far by any board, grown on demand
+    private static volatile long[] powers = powersUpTo(INITIAL_ROWS);
+
+    /*
+     Returns P^y, the weight of row y in the hash.
+    */
+    static long power(int y) {
+        long[] table = powers;
+        if (y >= table.length) {
+            table = growPowers(y);
+        }
+
+        return table[y];
+    }
+
+    private static synchronized long[] growPowers(int y) {
+        if (y >= powers.length) {
+            powers = powersUpTo(Math.max(y + 1, 2 * powers.length));
+        }
+
+        return powers;
+    }
+
+    private static long[] powersUpTo(int count) {
+        long[] table = new long[count];
+        long p = 1;
+        for (int y = 0; y < count; y++) {
+            table[y] = p;
+            p *= HASH_BASE;
+        }
+
+        return table;
+    }
+
+    private static long pow(long b, int e) {
+        long result = 1;
+        for (; e != 0; e >>>= 1) {
+            if ((e & 1) != 0) result *= b;
+            b *= b;
+        }
+
+        return result;
+    }
+
+    // Newton's iteration doubles the correct low bits each step;
+    // an odd number is its own inverse modulo 8
+    private static long inverse(long odd) {
+        long x = odd;
+        for (int i = 0; i < 5; i++) {
+            x *= 2 - odd * x;
+        }
+
+        return x;
+    }
+
+    /*
+     Computes the hash of the grid from scratch, for loading and
+     for the debug checks.
+    */
+    long computeHash() {
+        long sum = 0;
+        for (int y = 0; y <= rowMask; y++) {
+            for (int k = 0; k < words; k++) {
+                long mask = word(y, k);
+                if (mask != 0) {
+                    sum += wordHash(k, mask) * power(y);
+                }
+            }
+        }
+
+        return sum;
+    }
+
+
+    /**
+     * Returns the number of (rotation, x) pairs the given root piece
+     * has on this board, which bounds the number of placements
+     * enumeratePlacements() can report. Use it to size the arrays.
+     */
+    public int countPlacements(Piece root) {
+        int count = 0;
+        Piece current = root;
+
+        do {
+            count += Math.max(0, width - current.getWidth() + 1);
+            current = current.fastRotation();
+        } while (current != root);
+
+        return count;
+    }
+
+
+    /*
+     True if row y is filled all the way across.
+    */
+    abstract boolean rowFull(int y);
+
+    /*
+     True if row y would be full with the blocks of the given mask
+     added, where bit i of the mask is column x + i.
+    */
+    abstract boolean rowFullWith(int y, long shape, int x);
+
+    /*
+     True if row y has a block under the given mask, where bit i of
+     the mask is column x + i.
+    */
+    abstract boolean rowHits(int y, long shape, int x);
+
+    /*
+     True if the block (x, y) is filled. x must be in bounds and y
+     must not be negative.
+    */
+    abstract boolean filled(int x, int y);
+
+    /*
+     Fills the block (x, y) if it is empty and empties it if not,
+     through setWord(). Row y must be allocated.
+    */
+    abstract void flipCell(int x, int y);
+
+    /*
+     The mask of a full word k of a row.
+    */
+    abstract long fullWord(int k);
+
+    /*
+     Recomputes the column heights and the max height after rows went
+     away, given an upper bound for the new max height.
+    */
+    abstract void updateHeights(int topBound);
+
+
+    /**
+     * Returns what place() would return for the given piece and
+     * position -- PLACE_OK, PLACE_ROW_FILLED, PLACE_OUT_BOUNDS or
+     * PLACE_BAD -- without changing the board. The board may be in
+     * either state.
+     */
+    public int checkPlace(Piece piece, int x, int y) {
+        final long[] pieceRows = piece.getRowMasks();
+
+        if (outOfBounds(piece, x, y)) {
+            return PLACE_OUT_BOUNDS;
+        }
+
+        if (collides(pieceRows, x, y)) {
+            return PLACE_BAD;
+        }
+
+        for (int dy = 0; dy < pieceRows.length; dy++) {
+            if (pieceRows[dy] != 0 && rowFullWith(y + dy, pieceRows[dy], x)) {
+                return PLACE_ROW_FILLED;
+            }
+        }
+
+        return PLACE_OK;
+    }
+
+
+    /**
+     * Moves a piece that was just placed, and is still uncommitted,
+     * from (x, y) to newPiece at (newX, newY) -- e.g. one step down,
+     * sideways or to its next rotation. Only the blocks that differ
+     * between the old and the new footprint are changed. Returns the
+     * same codes as place(), but on failure the board is left as it
+     * was, with the piece at its old position. Either way a later
+     * undo() still reverts to the state before the original place().
+     */
+    public int move(Piece piece, int x, int y, Piece newPiece, int newX, int newY) {
+        if (committed) throw new RuntimeException("move commit problem");
+
+        final int[] bodyX = piece.getBodyX();
+        final int[] bodyY = piece.getBodyY();
+        final int[] newBodyX = newPiece.getBodyX();
+        final int[] newBodyY = newPiece.getBodyY();
+
+        if (outOfBounds(newPiece, newX, newY)) {
+            return PLACE_OUT_BOUNDS;
+        }
+
+        // the piece may overlap only itself
+        for (int i = 0; i < newBodyX.length; i++) {
+            final int px = newX + newBodyX[i];
+            final int py = newY + newBodyY[i];
+
+            if (filled(px, py) && !covers(bodyX, bodyY, x, y, px, py)) {
+                return PLACE_BAD;
+            }
+        }
+
+        ensureRows(newY + newPiece.getHeight());
+        saveHash();
+
+        // take away the old blocks the new footprint does not cover
+        boolean lowered = false;
+        for (int i = 0; i < bodyX.length; i++) {
+            final int px = x + bodyX[i];
+            final int py = y + bodyY[i];
+
+            if (!covers(newBodyX, newBodyY, newX, newY, px, py)) {
+                flipCell(px, py);
+
+                if (py + 1 == heights[px]) {
+                    lowerHeight(px);
+                    lowered = true;
+                }
+            }
+        }
+
+        // then add the new blocks that were not there already
+        int result = PLACE_OK;
+        int newMaxHeight = maxHeight;
+
+        for (int i = 0; i < newBodyX.length; i++) {
+            final int px = newX + newBodyX[i];
+            final int py = newY + newBodyY[i];
+
+            if (!filled(px, py)) {
+                flipCell(px, py);
+
+                if (py >= heights[px]) {
+                    setHeight(px, py + 1);
+                }
+                newMaxHeight = Math.max(newMaxHeight, py + 1);
+            }
+        }
+
+        for (int i = 0; i < newBodyY.length; i++) {
+            if (rowFull(newY + newBodyY[i])) {
+                result = PLACE_ROW_FILLED;
+                markFull(newY + newBodyY[i]);
+            }
+        }
+
+        if (lowered) {
+            newMaxHeight = 0;
+            for (int c = 0; c < width; c++) {
+                newMaxHeight = Math.max(newMaxHeight, heights[c]);
+            }
+        }
+
+        setMaxHeight(newMaxHeight);
+        sanityCheck();
+
+        return result;
+    }
+
+    private static boolean covers(int[] bodyX, int[] bodyY, int x, int y, int px, int py) {
+        for (int i = 0; i < bodyX.length; i++) {
+            if (x + bodyX[i] == px && y + bodyY[i] == py) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /*
+     Lowers the height of a column whose top block was removed,
+     down to its next block.
+    */
+    private void lowerHeight(int x) {
+        int newHeight = heights[x] - 1;
+
+        while (newHeight > 0 && !filled(x, newHeight - 1)) {
+            newHeight--;
+        }
+
+        setHeight(x, newHeight);
+    }
+
+    boolean collides(long[] pieceRows, int x, int y) {
+        for (int dy = 0; dy < pieceRows.length; dy++) {
+            if (rowHits(y + dy, pieceRows[dy], x)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /*
+     The body touches every side of the piece's bounding box, so the
+     piece is in bounds exactly when the box is.
+    */
+    boolean outOfBounds(Piece piece, int x, int y) {
+        return x < 0 || x > width - piece.getWidth() || y < 0 || y > height - piece.getHeight();
+    }
+
+
+    /**
+     * Computes every legal drop of every rotation of the given root
+     * piece in one pass, without changing the board. Candidate i is
+     * reported as the rotation index rotations[i] (0 for the root,
+     * k for k fastRotation() steps from it), its column xs[i], its
+     * landing row ys[i], the number of rows it would clear
+     * rowsCleared[i], and -- if resultHeights is not null -- the
+     * column heights of the board after placing it and clearing rows,
+     * in resultHeights[i * getWidth()] up to
+     * resultHeights[(i + 1) * getWidth() - 1].
+     *
+     * <p>
+     * As in Brain.bestMove(), a drop is legal if the piece lands
+     * fully below limitHeight. The piece must come from
+     * Piece.getPieces() or a PieceSet. Returns the number of
+     * candidates reported; the arrays must have room for
+     * countPlacements(root) of them.
+     */
+    public int enumeratePlacements(Piece root, int limitHeight, int[] rotations, int[] xs, int[] ys,
+                                   int[] rowsCleared, int[] resultHeights) {
+        final int yLimit = Math.min(limitHeight, height);
+
+        // rows that are already full get cleared by any placement
+        int alreadyFull = 0;
+        for (int y = 0; y < maxHeight; y++) {
+            if (rowFull(y)) {
+                if (alreadyFull == fullRowsScratch.length) {
+                    fullRowsScratch = Arrays.copyOf(fullRowsScratch, 2 * alreadyFull + 1);
+                }
+                fullRowsScratch[alreadyFull++] = y;
+            }
+        }
+
+        int count = 0;
+        int rotation = 0;
+        Piece current = root;
+
+        do {
+            loadShape(current);
+
+            final int pieceWidth = current.getWidth();
+            final int pieceHeight = current.getHeight();
+
+            final int maxX = current.getMaxX(width);
+
+            for (int x = 0; x <= maxX; x++) {
+                int y = dropHeight(current, x);
+                if (y + pieceHeight > yLimit) {
+                    continue;
+                }
+
+                // bit dy is set when the piece would fill row y + dy
+                long clearedMask = 0;
+                for (int dy = 0; dy < pieceHeight; dy++) {
+                    if (shapeRows[dy] != 0 && rowFullWith(y + dy, shapeRows[dy], x)) {
+                        clearedMask |= 1L << dy;
+                    }
+                }
+
+                rotations[count] = rotation;
+                xs[count] = x;
+                ys[count] = y;
+                rowsCleared[count] = alreadyFull + Long.bitCount(clearedMask);
+
+                if (resultHeights != null) {
+                    fillResultHeights(resultHeights, count * width, x, y, pieceWidth, pieceHeight,
+                            clearedMask, alreadyFull);
+                }
+
+                count++;
+            }
+
+            rotation++;
+            current = current.fastRotation();
+        } while (current != root);
+
+        return count;
+    }
+
+    /*
+     Loads the row masks and the per-column top (highest block + 1)
+     of the piece as the shape being enumerated.
+    */
+    private void loadShape(Piece piece) {
+        shapeRows = piece.getRowMasks();
+        shapeTops = piece.getHat();
+    }
+
+    /*
+     Writes the column heights the board would have after dropping
+     the loaded shape at x, y and clearing the rows the piece fills
+     (clearedMask) plus the rows that were already full. Every
+     cleared row is full, so it lies below the top of every column:
+     a column usually just loses one unit of height per cleared row.
+     If its top block is itself in a cleared row, the walk first goes
+     down to the highest block that survives.
+    */
+    private void fillResultHeights(int[] result, int offset, int x, int y, int pieceWidth, int pieceHeight,
+                                   long clearedMask, int alreadyFull) {
+        final boolean anyCleared = clearedMask != 0 || alreadyFull != 0;
+
+        for (int c = 0; c < width; c++) {
+            int top = heights[c];
+            if (c >= x && c < x + pieceWidth) {
+                top = Math.max(top, y + shapeTops[c - x]);
+            }
+
+            if (anyCleared) {
+                while (top > 0 && (!filledAfterDrop(c, top - 1, x, y, pieceWidth, pieceHeight)
+                        || clearedRow(top - 1, y, pieceHeight, clearedMask))) {
+                    top--;
+                }
+
+                int clearedBelow = 0;
+                for (int i = 0; i < alreadyFull && fullRowsScratch[i] < top; i++) {
+                    clearedBelow++;
+                }
+                if (top > y) {
+                    int dyLimit = Math.min(top - y, pieceHeight);
+                    clearedBelow += Long.bitCount(clearedMask & ((1L << dyLimit) - 1));
+                }
+
+                top -= clearedBelow;
+            }
+
+            result[offset + c] = top;
+        }
+    }
+
+    private boolean filledAfterDrop(int c, int yy, int x, int y, int pieceWidth, int pieceHeight) {
+        if (filled(c, yy)) {
+            return true;
+        }
+
+        return yy >= y && yy < y + pieceHeight && c >= x && c < x + pieceWidth
+                && (shapeRows[yy - y] & (1L << (c - x))) != 0;
+    }
+
+    private boolean clearedRow(int yy, int y, int pieceHeight, long clearedMask) {
+        if (yy >= y && yy < y + pieceHeight && (clearedMask & (1L << (yy - y))) != 0) {
+            return true;
+        }
+
+        return rowFull(yy);
+    }
+
+
+    /**
+     * Deletes rows that are filled all the way across, moving
+     * things above down. Returns the number of rows cleared.
+     *
+     * <p>
+     * Only the rows between the cleared ones and one end of the stack
+     * are copied: when the rows above the highest cleared row are
+     * fewer, they are copied down as usual; otherwise the rows below
+     * it are copied up, and the ring is turned so that the cleared
+     * rows drop off the bottom. Clearing near the floor, as when
+     * digging through garbage, thus costs a few rows however high
+     * the stack is.
+     */
+    public int clearRows() {
+        committed = false;
+
+        // full rows can only be among the ones place() or move() filled
+        int lowest = fullLow;
+        while (lowest < fullHigh && !rowFull(lowest)) {
+            lowest++;
+        }
+
+        if (lowest >= fullHigh) {
+            if (fullLow < fullHigh) {
+                setFullRows(0, 0);
+            }
+            return 0;
+        }
+
+        int highest = fullHigh - 1;
+        while (!rowFull(highest)) {
+            highest--;
+        }
+
+        saveHash();
+
+        int rowsCleared;
+        if (maxHeight - lowest <= highest + 1) {
+            rowsCleared = compactDown(lowest);
+        } else {
+            rowsCleared = compactUp(highest);
+        }
+
+        setFullRows(0, 0);
+        updateHeights(maxHeight - rowsCleared);
+
+        sanityCheck();
+
+        return rowsCleared;
+    }
+
+    /*
+     Copies every row above the lowest full one that is not full down
+     to the next free row, and empties the rows left over at the top.
+    */
+    private int compactDown(int lowest) {
+        int write = lowest;
+
+        for (int read = lowest + 1; read < maxHeight; read++) {
+            if (!rowFull(read)) {
+                copyRow(read, write++);
+            }
+        }
+
+        for (int y = write; y < maxHeight; y++) {
+            copyRow(-1, y);
+        }
+
+        return maxHeight - write;
+    }
+
+    /*
+     Copies every row below the highest full one that is not full up
+     to the next free row, empties the rows left over at the bottom
+     and drops them by turning the ring.
+    */
+    private int compactUp(int highest) {
+        int write = highest;
+
+        for (int read = highest - 1; read >= 0; read--) {
+            if (!rowFull(read)) {
+                copyRow(read, write--);
+            }
+        }
+
+        int rowsCleared = write + 1;
+        for (int y = 0; y < rowsCleared; y++) {
+            copyRow(-1, y);
+        }
+        shiftRows(-rowsCleared);
+
+        return rowsCleared;
+    }
+
+    // copies row from to row to, or empties row to if from is -1
+    private void copyRow(int from, int to) {
+        for (int k = 0; k < words; k++) {
+            setWord(to, k, from < 0 ? 0 : word(from, k));
+        }
+    }
+
+
+    /**
+     * Inserts count garbage rows at the bottom of the board, pushing
+     * everything up: rows filled all the way across except for the
+     * block at holeColumn. Returns PLACE_OK, or PLACE_OUT_BOUNDS,
+     * leaving the board unchanged, if blocks would be pushed above
+     * the top. Like clearRows(), this may follow a place() before the
+     * commit(), and undo() takes it back.
+     *
+     * <p>
+     * Implementation: the ring is turned so that count empty rows
+     * appear under the stack, then they are filled -- O(count) words
+     * plus the column heights, however high the stack is.
+     */
+    public int insertGarbage(int count, int holeColumn) {
+        if (count < 0 || holeColumn < 0 || holeColumn >= width) {
+            throw new IllegalArgumentException("Bad garbage: " + count + " rows, hole at " + holeColumn);
+        }
+
+        if (maxHeight + count > height) {
+            return PLACE_OUT_BOUNDS;
+        }
+
+        committed = false;
+
+        ensureRows(maxHeight + count);
+        saveHash();
+        shiftRows(count);
+        if (fullLow < fullHigh) {
+            setFullRows(fullLow + count, fullHigh + count);
+        }
+
+        final int holeWord = holeColumn / Long.SIZE;
+        for (int y = 0; y < count; y++) {
+            for (int k = 0; k < words; k++) {
+                setWord(y, k, k == holeWord ? fullWord(k) & ~(1L << holeColumn) : fullWord(k));
+            }
+        }
+
+        int newMaxHeight = 0;
+        for (int x = 0; x < width; x++) {
+            if (heights[x] > 0) {
+                setHeight(x, heights[x] + count);
+            } else if (x != holeColumn) {
+                setHeight(x, count);
+            }
+            newMaxHeight = Math.max(newMaxHeight, heights[x]);
+        }
+
+        setMaxHeight(newMaxHeight);
+        sanityCheck();
+
+        return PLACE_OK;
+    }
+
+
+    /*
+     Makes the given empty board, of the same class and size, a copy
+     of this one for copy(). Rows that may be full stay so marked.
+    */
+    Board copyInto(AbstractBoard copy) {
+        copy.ensureRows(maxHeight);
+        for (int y = 0; y < maxHeight; y++) {
+            System.arraycopy(rows, slot(y), copy.rows, copy.slot(y), words);
+        }
+
+        System.arraycopy(heights, 0, copy.heights, 0, width);
+        copy.maxHeight = maxHeight;
+        copy.hash = hash;
+        copy.resetFullRows(fullLow, fullHigh);
+
+        copy.tracking = tracking;
+        copy.blocks = blocks;
+        copy.aggregateHeight = aggregateHeight;
+        copy.bumpiness = bumpiness;
+        copy.wellDepths = wellDepths;
+        copy.rowTransitions = rowTransitions;
+        copy.columnTransitions = columnTransitions;
+        copy.markDirty(0, maxHeight);
+        copy.sanityCheck();
+
+        return copy;
+    }
+
+
+    /*
+     Returns the number of rows the ring can hold.
+    */
+    int rowCapacity() {
+        return rowMask + 1;
+    }
+
+    /*
+     Returns the index in rows[] of the first word of row y, which
+     must be below rowCapacity().
+    */
+    int slot(int y) {
+        return ((base + y) & rowMask) * words;
+    }
+
+    /*
+     Returns word k of row y. The rows above the allocated ones
+     are empty.
+    */
+    long word(int y, int k) {
+        return (y & ~rowMask) == 0 ? rows[slot(y) + k] : 0;
+    }
+
+    /*
+     Sets word k of row y, which must be allocated, journaling the
+     old value and updating the hash. The caller saves the hash once
+     per operation with saveHash().
+    */
+    void setWord(int y, int k, long value) {
+        final int i = slot(y) + k;
+        final long old = rows[i];
+
+        if (old != value) {
+            record(y << wordBits | k, old);
+            hash += (wordHash(k, value) - wordHash(k, old)) * power(y);
+            if (tracking) wordChanged(y, k, old, value);
+            rows[i] = value;
+            markDirty(y, y + 1);
+        }
+    }
+
+    /*
+     Makes sure rows 0 to rowCount - 1 are allocated, so they can be
+     written. Growing does not need journaling: the new rows are empty,
+     and every row keeps its place relative to base.
+    */
+    void ensureRows(int rowCount) {
+        if (rowCount > rowCapacity()) {
+            int capacity = ringSize(Math.min(height, Math.max(rowCount, 2 * rowCapacity())));
+            long[] newRows = new long[capacity * words];
+
+            for (int y = 0; y <= rowMask; y++) {
+                System.arraycopy(rows, slot(y), newRows, ((base + y) & (capacity - 1)) * words, words);
+            }
+
+            rows = newRows;
+            rowMask = capacity - 1;
+        }
+    }
+
+    private static int ringSize(int rowCount) {
+        return rowCount <= 1 ? 1 : Integer.highestOneBit(rowCount - 1) << 1;
+    }
+
+    /*
+     Moves every row n rows up (or -n rows down when n is negative)
+     by moving base. The n rows that wrap around the ring must be
+     empty: the top n allocated rows when going up, the bottom ones
+     when going down.
+    */
+    void shiftRows(int n) {
+        // only the column transitions at the floor change: n empty
+        // rows go in under the stack, or come out from under it
+        if (tracking && n != 0) {
+            columnTransitions += n > 0 ? 2 * rowBlocks(0) : -2 * rowBlocks(-n);
+        }
+
+        markDirty(0, Math.min(height, maxHeight + Math.abs(n)));
+        record(BASE_KEY, base);
+        base -= n;
+        hash *= n >= 0 ? pow(HASH_BASE, n) : pow(HASH_BASE_INVERSE, -n);
+    }
+
+    void setHeight(int x, int newHeight) {
+        if (heights[x] != newHeight) {
+            record(~x, heights[x]);
+            if (tracking) heightTerms(x, -1);
+            heights[x] = newHeight;
+            if (tracking) heightTerms(x, 1);
+        }
+    }
+
+    /*
+     Journals the hash, and the feature sums if they are tracked,
+     before an operation changes them.
+    */
+    void saveHash() {
+        record(HASH_KEY, hash);
+        if (tracking) saveFeatures();
+    }
+
+    /*
+     Notes that row y may have become full, for clearRows().
+    */
+    void markFull(int y) {
+        if (fullLow >= fullHigh) {
+            setFullRows(y, y + 1);
+        } else if (y < fullLow || y >= fullHigh) {
+            setFullRows(Math.min(fullLow, y), Math.max(fullHigh, y + 1));
+        }
+    }
+
+    /*
+     Sets the range of possibly full rows without journaling, for
+     when the whole grid has been replaced.
+    */
+    void resetFullRows(int low, int high) {
+        fullLow = low;
+        fullHigh = high;
+    }
+
+    private void setFullRows(int low, int high) {
+        record(FULL_ROWS_KEY, (long) fullLow << Integer.SIZE | fullHigh);
+        fullLow = low;
+        fullHigh = high;
+    }
+
+    void setMaxHeight(int newMaxHeight) {
+        if (maxHeight != newMaxHeight) {
+            record(MAX_HEIGHT_KEY, maxHeight);
+            maxHeight = newMaxHeight;
+        }
+    }
+
+    private void record(int key, long oldValue) {
+        if (journalSize == journalKeys.length) {
+            journalKeys = Arrays.copyOf(journalKeys, 2 * journalSize);
+            journalValues = Arrays.copyOf(journalValues, 2 * journalSize);
+        }
+
+        journalKeys[journalSize] = key;
+        journalValues[journalSize] = oldValue;
+        journalSize++;
+    }
+
+
+    /**
+     * Reverts the board to its state before up to one place
+     * and one clearRows() or insertGarbage();
+     * If the conditions for undo() are not met, such as
+     * calling undo() twice in a row, then the second undo() does nothing.
+     * See the overview docs.
+     */
+    public void undo() {
+        if (!committed) {
+            rollbackJournal(commitMark);
+            commit();
+            sanityCheck();
+        }
+    }
+
+    /*
+     Replays the journal backwards down to the given position,
+     restoring every old value.
+    */
+    private void rollbackJournal(int mark) {
+        while (journalSize > mark) {
+            journalSize--;
+            int key = journalKeys[journalSize];
+            long oldValue = journalValues[journalSize];
+
+            if (key >= 0) {
+                final int y = key >>> wordBits;
+                rows[slot(y) + (key & ((1 << wordBits) - 1))] = oldValue;
+                markDirty(y, y + 1);
+            } else if (key == MAX_HEIGHT_KEY) {
+                maxHeight = (int) oldValue;
+            } else if (key == HASH_KEY) {
+                hash = oldValue;
+            } else if (key == BASE_KEY) {
+                markDirty(0, Math.min(height, maxHeight + Math.abs(base - (int) oldValue)));
+                base = (int) oldValue;
+            } else if (key == FULL_ROWS_KEY) {
+                fullLow = (int) (oldValue >>> Integer.SIZE);
+                fullHigh = (int) oldValue;
+            } else if (key == FEATURES_KEY) {
+                blocks = (int) (oldValue >>> Integer.SIZE);
+                aggregateHeight = (int) oldValue;
+            } else if (key == FEATURES_KEY + 1) {
+                bumpiness = (int) (oldValue >>> Integer.SIZE);
+                wellDepths = (int) oldValue;
+            } else if (key == FEATURES_KEY + 2) {
+                rowTransitions = (int) (oldValue >>> Integer.SIZE);
+                columnTransitions = (int) oldValue;
+            } else {
+                heights[~key] = (int) oldValue;
+            }
+        }
+    }
+
+
+    /**
+     * Puts the board in the committed state.
+     */
+    public void commit() {
+        committed = true;
+
+        // with no checkpoint open nobody can go back past here
+        if (checkpointDepth == 0) {
+            journalSize = 0;
+        }
+
+        commitMark = journalSize;
+    }
+
+
+    /*
+     Drops the undo history and every open checkpoint, and commits --
+     for when the whole grid has been replaced.
+    */
+    void resetJournal() {
+        checkpointDepth = 0;
+        commit();
+
+        if (tracking) computeFeatures();
+    }
+
+
+    /**
+     * Opens a new undo level at the current (committed) state and
+     * returns its depth, starting from 0 for the outermost one.
+     * Any sequence of place(), clearRows(), commit() and undo() may
+     * follow; rollbackTo() with the returned depth brings the board
+     * back to exactly this state. Each level only costs the journal
+     * entries of the changes made while it is open.
+     */
+    public int checkpoint() {
+        if (!committed) throw new RuntimeException("checkpoint commit problem");
+
+        if (checkpointDepth == checkpoints.length) {
+            checkpoints = Arrays.copyOf(checkpoints, 2 * checkpointDepth);
+        }
+
+        checkpoints[checkpointDepth] = journalSize;
+        return checkpointDepth++;
+    }
+
+
+    /**
+     * Reverts the board to the most recent checkpoint and closes it.
+     */
+    public void rollback() {
+        rollbackTo(checkpointDepth - 1);
+    }
+
+
+    /**
+     * Reverts the board to the checkpoint of the given depth, closing
+     * it and every checkpoint opened after it. The board is left
+     * committed.
+     */
+    public void rollbackTo(int depth) {
+        if (depth < 0 || depth >= checkpointDepth) {
+            throw new RuntimeException("No checkpoint at depth " + depth);
+        }
+
+        rollbackJournal(checkpoints[depth]);
+        checkpointDepth = depth;
+
+        commit();
+        sanityCheck();
+    }
+
+
+    /**
+     * Closes the most recent checkpoint but keeps the changes made
+     * since it was opened. They become part of the enclosing
+     * checkpoint, if there is one.
+     */
+    public void release() {
+        if (checkpointDepth == 0) throw new RuntimeException("No checkpoint to release");
+
+        checkpointDepth--;
+
+        if (committed) {
+            commit();
+        }
+    }
+
+
+    /**
+     * Returns the number of currently open checkpoints.
+     */
+    public int getCheckpointDepth() {
+        return checkpointDepth;
+    }
+
+
+    /*
+     Renders the board state as a big String, suitable for printing.
+     This is the sort of print-obj-state utility that can help see complex
+     state change over time.
+     (provided debugging utility)
+     */
+    public String toString() {
+        StringBuilder buff = new StringBuilder();
+        for (int y = height - 1; y >= 0; y--) {
+            buff.append('|');
+            for (int x = 0; x < width; x++) {
+                if (getGrid(x, y)) buff.append('+');
+                else buff.append(' ');
+            }
+            buff.append("|\n");
+        }
+        for (int x = 0; x < width + 2; x++) buff.append('-');
+        return (buff.toString());
+    }
+}
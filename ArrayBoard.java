@@ -0,0 +1,658 @@
+// ArrayBoard.java
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The reference {@link Board} implementation.
+ * Keeps the grid as a plain 2-d array of booleans plus the width
+ * of every row and the height of every column, and recomputes
+ * the heights from scratch whenever blocks go away. undo() swaps
+ * in a full copy of the board taken at the first change after a
+ * commit, and every checkpoint is a full copy of its own.
+ *
+ * <p>
+ * Nothing here is clever, which is the point: it is slow on big
+ * boards, but easy to check by eye, and the faster implementations
+ * are tested against it by BoardDifferentialTest.
+ */
+public class ArrayBoard implements Board {
+    private int width;
+    private int height;
+    private boolean DEBUG = false;
+    boolean committed;
+
+    // the current state, and the state at the last commit for undo()
+    private State current;
+    private State backup;
+
+    // one full copy per open checkpoint, innermost last
+    private final List<State> checkpoints = new ArrayList<>();
+
+    // scratch state for enumeratePlacements()
+    private State scratch;
+
+    // rows changed since the last resetDirtyRows()
+    private int dirtyStart;
+    private int dirtyEnd;
+
+    /*
+     Everything that place(), clearRows() and undo() change.
+    */
+    private static class State {
+        final boolean[][] grid;
+        final int[] widths;
+        final int[] heights;
+        int maxHeight;
+
+        State(int width, int height) {
+            this.grid = new boolean[width][height];
+            this.widths = new int[height];
+            this.heights = new int[width];
+            this.maxHeight = 0;
+        }
+
+        void copyFrom(State other) {
+            for (int x = 0; x < grid.length; x++) {
+                System.arraycopy(other.grid[x], 0, grid[x], 0, widths.length);
+            }
+
+            System.arraycopy(other.widths, 0, widths, 0, widths.length);
+            System.arraycopy(other.heights, 0, heights, 0, heights.length);
+            maxHeight = other.maxHeight;
+        }
+    }
+
+
+    // Here a few trivial methods are provided:
+
+    /**
+     * Creates an empty board of the given width and height
+     * measured in blocks.
+     */
+    public ArrayBoard(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.committed = true;
+
+        this.current = new State(width, height);
+        this.backup = new State(width, height);
+        resetDirtyRows();
+    }
+
+    /**
+     * Returns a new ArrayBoard holding the blocks this board holds now.
+     * See Board.
+     */
+    public Board copy() {
+        ArrayBoard copy = new ArrayBoard(width, height);
+        copy.current.copyFrom(current);
+        copy.markDirty(0);
+
+        return copy;
+    }
+
+
+    /**
+     * Returns the width of the board in blocks.
+     */
+    public int getWidth() {
+        return this.width;
+    }
+
+
+    /**
+     * Returns the height of the board in blocks.
+     */
+    public int getHeight() {
+        return this.height;
+    }
+
+
+    /**
+     * Returns the max column height present in the board.
+     * For an empty board this is 0.
+     */
+    public int getMaxHeight() {
+        return current.maxHeight;
+    }
+
+
+    /**
+     * Checks the board for internal consistency -- used
+     * for debugging.
+     */
+    public void sanityCheck() {
+        if (DEBUG) {
+            for (int y = 0; y < height; y++) {
+                int rowWidth = 0;
+                for (int x = 0; x < width; x++) {
+                    if (current.grid[x][y]) rowWidth++;
+                }
+
+                if (current.widths[y] != rowWidth) {
+                    throw new RuntimeException("Incorrect widths!");
+                }
+            }
+
+            int[] heights = current.heights.clone();
+            int maxHeight = current.maxHeight;
+            updateHeights(current);
+
+            if (!Arrays.equals(heights, current.heights)) {
+                throw new RuntimeException("Incorrect heights!");
+            }
+
+            if (maxHeight != current.maxHeight) {
+                throw new RuntimeException("Incorrect max height!");
+            }
+        }
+    }
+
+
+    /**
+     * Given a piece and an x, returns the y
+     * value where the piece would come to rest
+     * if it were dropped straight down at that x.
+     */
+    public int dropHeight(Piece piece, int x) {
+        int y = 0;
+        int[] pieceSkirt = piece.getSkirt();
+
+        for (int i = 0; i < pieceSkirt.length; i++) {
+            int currY = getColumnHeight(x + i) - pieceSkirt[i];
+
+            if (currY > y) {
+                y = currY;
+            }
+        }
+
+        return y;
+    }
+
+
+    /**
+     * Returns the height of the given column --
+     * i.e. the y value of the highest block + 1.
+     * The height is 0 if the column contains no blocks.
+     */
+    public int getColumnHeight(int x) {
+        return current.heights[x];
+    }
+
+
+    /**
+     * Returns the number of filled blocks in
+     * the given row.
+     */
+    public int getRowWidth(int y) {
+        return current.widths[y];
+    }
+
+
+    /**
+     * Returns true if the given block is filled in the board.
+     * Blocks outside of the valid width/height area
+     * always return true.
+     */
+    public boolean getGrid(int x, int y) {
+        return !inBounds(x, y) || current.grid[x][y];
+    }
+
+    private boolean inBounds(int x, int y) {
+        return x >= 0 && x < this.width && y >= 0 && y < this.height;
+    }
+
+
+    /**
+     * Returns a 64-bit hash of the blocks in the board, computed
+     * from scratch with the same keys and row weights as
+     * AbstractBoard, one key per 64-column word of each row.
+     */
+    public long getHash() {
+        long hash = 0;
+
+        for (int y = 0; y < current.maxHeight; y++) {
+            for (int k = 0; k * Long.SIZE < width; k++) {
+                long word = 0;
+                for (int x = k * Long.SIZE; x < Math.min(width, (k + 1) * Long.SIZE); x++) {
+                    if (current.grid[x][y]) word |= 1L << (x - k * Long.SIZE);
+                }
+
+                hash += AbstractBoard.wordHash(k, word) * AbstractBoard.power(y);
+            }
+        }
+
+        return hash;
+    }
+
+
+    /**
+     * Returns the lowest row whose blocks may have changed since the
+     * last resetDirtyRows(). Every change simply marks all the rows
+     * up to the max height before or after it.
+     */
+    public int getDirtyRowStart() {
+        return dirtyStart;
+    }
+
+    /**
+     * Returns one past the highest row whose blocks may have changed
+     * since the last resetDirtyRows().
+     */
+    public int getDirtyRowEnd() {
+        return dirtyEnd;
+    }
+
+    /**
+     * Empties the range of changed rows.
+     */
+    public void resetDirtyRows() {
+        dirtyStart = height;
+        dirtyEnd = 0;
+    }
+
+    private void markDirty(int oldMaxHeight) {
+        dirtyStart = 0;
+        dirtyEnd = Math.max(dirtyEnd, Math.max(oldMaxHeight, current.maxHeight));
+    }
+
+
+    /**
+     * Attempts to add the body of a piece to the board.
+     * Copies the piece blocks into the board grid.
+     * Returns PLACE_OK for a regular placement, or PLACE_ROW_FILLED
+     * for a regular placement that causes at least one row to be filled.
+     *
+     * <p>Error cases:
+     * A placement may fail in two ways. First, if part of the piece may falls out
+     * of bounds of the board, PLACE_OUT_BOUNDS is returned.
+     * Or the placement may collide with existing blocks in the grid
+     * in which case PLACE_BAD is returned.
+     * In both error cases, the board is left unchanged, but
+     * uncommitted; undo() brings back the committed state.
+     */
+    public int place(Piece piece, int x, int y) {
+        if (!committed) throw new RuntimeException("place commit problem");
+
+        committed = false;
+        backup.copyFrom(current);
+
+        int result = checkPlace(piece, x, y);
+
+        if (result <= PLACE_ROW_FILLED) {
+            int oldMaxHeight = current.maxHeight;
+            fill(current, piece, x, y);
+            updateHeights(current);
+            markDirty(oldMaxHeight);
+            sanityCheck();
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns what place() would return for the given piece and
+     * position -- PLACE_OK, PLACE_ROW_FILLED, PLACE_OUT_BOUNDS or
+     * PLACE_BAD -- without changing the board. The board may be in
+     * either state.
+     */
+    public int checkPlace(Piece piece, int x, int y) {
+        for (final TPoint tp : piece.getBody()) {
+            if (!inBounds(x + tp.x, y + tp.y)) {
+                return PLACE_OUT_BOUNDS;
+            }
+        }
+
+        for (final TPoint tp : piece.getBody()) {
+            if (current.grid[x + tp.x][y + tp.y]) {
+                return PLACE_BAD;
+            }
+        }
+
+        for (final TPoint tp : piece.getBody()) {
+            int rowWidth = current.widths[y + tp.y];
+
+            for (final TPoint other : piece.getBody()) {
+                if (other.y == tp.y) rowWidth++;
+            }
+
+            if (rowWidth == width) {
+                return PLACE_ROW_FILLED;
+            }
+        }
+
+        return PLACE_OK;
+    }
+
+
+    /**
+     * Moves a piece that was just placed, and is still uncommitted,
+     * from (x, y) to newPiece at (newX, newY) -- e.g. one step down,
+     * sideways or to its next rotation. Returns the same codes as
+     * place(), but on failure the board is left as it was, with the
+     * piece at its old position. Either way a later undo() still
+     * reverts to the state before the original place().
+     */
+    public int move(Piece piece, int x, int y, Piece newPiece, int newX, int newY) {
+        if (committed) throw new RuntimeException("move commit problem");
+
+        int oldMaxHeight = current.maxHeight;
+
+        // take the piece out, and put it back if the new spot is no good
+        unfill(current, piece, x, y);
+
+        int result = checkPlace(newPiece, newX, newY);
+
+        if (result <= PLACE_ROW_FILLED) {
+            fill(current, newPiece, newX, newY);
+        } else {
+            fill(current, piece, x, y);
+        }
+
+        updateHeights(current);
+        markDirty(oldMaxHeight);
+        sanityCheck();
+
+        return result;
+    }
+
+
+    /**
+     * Returns the number of (rotation, x) pairs the given root piece
+     * has on this board, which bounds the number of placements
+     * enumeratePlacements() can report. Use it to size the arrays.
+     */
+    public int countPlacements(Piece root) {
+        int count = 0;
+        Piece current = root;
+
+        do {
+            count += Math.max(0, width - current.getWidth() + 1);
+            current = current.fastRotation();
+        } while (current != root);
+
+        return count;
+    }
+
+
+    /**
+     * Computes every legal drop of every rotation of the given root
+     * piece, without changing the board. Each drop is simply played
+     * on a scratch copy of the board. See Board for the meaning of
+     * the arguments.
+     */
+    public int enumeratePlacements(Piece root, int limitHeight, int[] rotations, int[] xs, int[] ys,
+                                   int[] rowsCleared, int[] resultHeights) {
+        if (scratch == null) scratch = new State(width, height);
+
+        int count = 0;
+        int rotation = 0;
+        Piece piece = root;
+
+        do {
+            for (int x = 0; x + piece.getWidth() <= width; x++) {
+                int y = dropHeight(piece, x);
+                if (y + piece.getHeight() > Math.min(limitHeight, height)) {
+                    continue;
+                }
+
+                scratch.copyFrom(current);
+                fill(scratch, piece, x, y);
+
+                rotations[count] = rotation;
+                xs[count] = x;
+                ys[count] = y;
+                rowsCleared[count] = clearFilledRows(scratch);
+
+                if (resultHeights != null) {
+                    updateHeights(scratch);
+                    System.arraycopy(scratch.heights, 0, resultHeights, count * width, width);
+                }
+
+                count++;
+            }
+
+            rotation++;
+            piece = piece.fastRotation();
+        } while (piece != root);
+
+        return count;
+    }
+
+
+    /**
+     * Deletes rows that are filled all the way across, moving
+     * things above down. Returns the number of rows cleared.
+     */
+    public int clearRows() {
+        if (committed) {
+            backup.copyFrom(current);
+            committed = false;
+        }
+
+        int oldMaxHeight = current.maxHeight;
+        int rowsCleared = clearFilledRows(current);
+        updateHeights(current);
+        markDirty(oldMaxHeight);
+        sanityCheck();
+
+        return rowsCleared;
+    }
+
+    /*
+     Copies every row that is not full down over the full ones,
+     and empties the rows left over at the top.
+    */
+    private int clearFilledRows(State state) {
+        int write = 0;
+
+        for (int read = 0; read < height; read++) {
+            if (state.widths[read] != width) {
+                copyRow(state, read, write);
+                write++;
+            }
+        }
+
+        for (int y = write; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                state.grid[x][y] = false;
+            }
+            state.widths[y] = 0;
+        }
+
+        return height - write;
+    }
+
+    /**
+     * Inserts count garbage rows at the bottom of the board, pushing
+     * everything up: rows filled all the way across except for the
+     * block at holeColumn. Returns PLACE_OK, or PLACE_OUT_BOUNDS,
+     * leaving the board unchanged, if blocks would be pushed above
+     * the top. Like clearRows(), this may follow a place() before the
+     * commit(), and undo() takes it back.
+     */
+    public int insertGarbage(int count, int holeColumn) {
+        if (count < 0 || holeColumn < 0 || holeColumn >= width) {
+            throw new IllegalArgumentException("Bad garbage: " + count + " rows, hole at " + holeColumn);
+        }
+
+        if (current.maxHeight + count > height) {
+            return PLACE_OUT_BOUNDS;
+        }
+
+        if (committed) {
+            backup.copyFrom(current);
+            committed = false;
+        }
+
+        int oldMaxHeight = current.maxHeight;
+        for (int y = height - 1; y >= count; y--) {
+            copyRow(current, y - count, y);
+        }
+
+        for (int y = 0; y < count; y++) {
+            for (int x = 0; x < width; x++) {
+                current.grid[x][y] = x != holeColumn;
+            }
+            current.widths[y] = width - 1;
+        }
+
+        updateHeights(current);
+        markDirty(oldMaxHeight);
+        sanityCheck();
+
+        return PLACE_OK;
+    }
+
+    private void copyRow(State state, int from, int to) {
+        for (int x = 0; x < width; x++) {
+            state.grid[x][to] = state.grid[x][from];
+        }
+        state.widths[to] = state.widths[from];
+    }
+
+    private void fill(State state, Piece piece, int x, int y) {
+        for (final TPoint tp : piece.getBody()) {
+            state.grid[x + tp.x][y + tp.y] = true;
+            state.widths[y + tp.y]++;
+        }
+    }
+
+    private void unfill(State state, Piece piece, int x, int y) {
+        for (final TPoint tp : piece.getBody()) {
+            state.grid[x + tp.x][y + tp.y] = false;
+            state.widths[y + tp.y]--;
+        }
+    }
+
+    private void updateHeights(State state) {
+        state.maxHeight = 0;
+
+        for (int x = 0; x < width; x++) {
+            state.heights[x] = 0;
+
+            for (int y = 0; y < height; y++) {
+                if (state.grid[x][y]) {
+                    state.heights[x] = y + 1;
+                }
+            }
+
+            state.maxHeight = Math.max(state.maxHeight, state.heights[x]);
+        }
+    }
+
+
+    /**
+     * Reverts the board to its state before up to one place
+     * and one clearRows() or insertGarbage();
+     * If the conditions for undo() are not met, such as
+     * calling undo() twice in a row, then the second undo() does nothing.
+     * See the overview docs.
+     */
+    public void undo() {
+        if (!committed) {
+            State temp = current;
+            current = backup;
+            backup = temp;
+            markDirty(backup.maxHeight);
+
+            commit();
+            sanityCheck();
+        }
+    }
+
+
+    /**
+     * Puts the board in the committed state.
+     */
+    public void commit() {
+        committed = true;
+    }
+
+
+    /**
+     * Opens a new undo level at the current (committed) state and
+     * returns its depth, starting from 0 for the outermost one.
+     * The level keeps a full copy of the board.
+     */
+    public int checkpoint() {
+        if (!committed) throw new RuntimeException("checkpoint commit problem");
+
+        State copy = new State(width, height);
+        copy.copyFrom(current);
+        checkpoints.add(copy);
+
+        return checkpoints.size() - 1;
+    }
+
+
+    /**
+     * Reverts the board to the most recent checkpoint and closes it.
+     */
+    public void rollback() {
+        rollbackTo(checkpoints.size() - 1);
+    }
+
+
+    /**
+     * Reverts the board to the checkpoint of the given depth, closing
+     * it and every checkpoint opened after it. The board is left
+     * committed.
+     */
+    public void rollbackTo(int depth) {
+        if (depth < 0 || depth >= checkpoints.size()) {
+            throw new RuntimeException("No checkpoint at depth " + depth);
+        }
+
+        int oldMaxHeight = current.maxHeight;
+        current.copyFrom(checkpoints.get(depth));
+        markDirty(oldMaxHeight);
+        checkpoints.subList(depth, checkpoints.size()).clear();
+
+        commit();
+        sanityCheck();
+    }
+
+
+    /**
+     * Closes the most recent checkpoint but keeps the changes made
+     * since it was opened. They become part of the enclosing
+     * checkpoint, if there is one.
+     */
+    public void release() {
+        if (checkpoints.isEmpty()) throw new RuntimeException("No checkpoint to release");
+
+        checkpoints.remove(checkpoints.size() - 1);
+    }
+
+
+    /**
+     * Returns the number of currently open checkpoints.
+     */
+    public int getCheckpointDepth() {
+        return checkpoints.size();
+    }
+
+
+    /*
+     Renders the board state as a big String, suitable for printing.
+     This is the sort of print-obj-state utility that can help see complex
+     state change over time.
+     (provided debugging utility)
+     */
+    public String toString() {
+        StringBuilder buff = new StringBuilder();
+        for (int y = height - 1; y >= 0; y--) {
+            buff.append('|');
+            for (int x = 0; x < width; x++) {
+                if (getGrid(x, y)) buff.append('+');
+                else buff.append(' ');
+            }
+            buff.append("|\n");
+        }
+        for (int x = 0; x < width + 2; x++) buff.append('-');
+        return (buff.toString());
+    }
+}
@@ -0,0 +1,257 @@
+// BeamSearchBrain.java
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A Brain that looks ahead at the upcoming pieces. Given a preview of
+ * the pieces after the current one, bestMove() plays them all in turn
+ * by beam search: every play of the current piece is rated, the best
+ * few boards -- the beam -- are kept, every play of the next piece is
+ * tried on each of them, the best few of those are kept, and so on, up
+ * to the configured depth or the end of the preview. The move returned
+ * is the first move of the best line found.
+ * <p>
+ * Boards are rated by another brain's rateBoard(), so lower is better
+ * as everywhere, and the scorer can be a CachingBrain. Different lines
+ * that lead to the same board are kept once, by hash.
+ * <p>
+ * The search runs on the given board itself, between checkpoint() and
+ * rollback(): a line is played by replaying its moves, so no board is
+ * ever copied. With a time budget set, the search stops going deeper
+ * once the budget is spent and answers from the deepest level it
+ * finished; the first level, which is what DefaultBrain searches, is
+ * always finished.
+ * <pre>
+ * BeamSearchBrain brain = new BeamSearchBrain(new DefaultBrain(), 16, 3);
+ * brain.setPreview(nextPieces);
+ * Brain.Move move = brain.bestMove(board, piece, limitHeight, null);
+ * </pre>
+ */
+public class BeamSearchBrain extends DefaultBrain {
+    private final DefaultBrain scorer;
+    private final int beamWidth;
+    private final int depth;
+
+    private Piece[] preview = new Piece[0];
+    private long timeBudget;
+
+    // The last search, for tuning
+    private int levelsSearched;
+    private long boardsRated;
+
+    /*
+     One line of play: the move of its last piece, the board score
+     after it, and the line it extends, or null for the first piece.
+    */
+    private static final class Line {
+        final Line parent;
+        final Piece piece;
+        final int x;
+        final int y;
+        final double score;
+
+        Line(Line parent, Piece piece, int x, int y, double score) {
+            this.parent = parent;
+            this.piece = piece;
+            this.x = x;
+            this.y = y;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Creates a brain rating boards with the given brain, keeping the
+     * given number of lines at each step and looking at most depth
+     * pieces ahead, the current one included.
+     */
+    public BeamSearchBrain(DefaultBrain scorer, int beamWidth, int depth) {
+        if (beamWidth < 1 || depth < 1) {
+            throw new IllegalArgumentException("Bad beam width " + beamWidth + " or depth " + depth);
+        }
+
+        this.scorer = scorer;
+        this.beamWidth = beamWidth;
+        this.depth = depth;
+    }
+
+
+    /**
+     * Sets the pieces that will come after the one passed to the next
+     * bestMove(), in order, from the first rotation of each. Pieces
+     * past the search depth are ignored.
+     */
+    public void setPreview(Piece... preview) {
+        this.preview = preview.clone();
+    }
+
+    /**
+     * Sets the pieces that will come after the one passed to the next
+     * bestMove(), in order.
+     */
+    public void setPreview(List<Piece> preview) {
+        this.preview = preview.toArray(new Piece[0]);
+    }
+
+    /**
+     * Sets the time bestMove() may take, in nanoseconds, or 0 for no
+     * limit. The first level is searched whatever the budget.
+     */
+    public void setTimeBudget(long nanos) {
+        this.timeBudget = nanos;
+    }
+
+    /**
+     * Returns the number of pieces the last bestMove() searched through.
+     */
+    public int getLevelsSearched() {
+        return levelsSearched;
+    }
+
+    /**
+     * Returns the number of boards the last bestMove() rated.
+     */
+    public long getBoardsRated() {
+        return boardsRated;
+    }
+
+
+    /**
+     * Returns the first move of the best line of play through the
+     * current piece and the preview, or null if the current piece
+     * cannot be played. The score of the move is that of the board at
+     * the end of the line. See the Brain interface for the rest.
+     */
+    @Override
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        if (move == null) move = new Brain.Move();
+
+        final long deadline = System.nanoTime() + timeBudget;
+        final int levels = Math.min(depth, preview.length + 1);
+
+        board.commit();
+        boardsRated = 0;
+
+        List<Line> plays = new ArrayList<>();
+        List<Long> hashes = new ArrayList<>();
+
+        expand(board, null, piece, limitHeight, plays, hashes);
+        List<Line> beam = selectBeam(plays, hashes);
+        levelsSearched = 1;
+
+        for (int level = 1; level < levels && !beam.isEmpty(); level++) {
+            plays.clear();
+            hashes.clear();
+
+            boolean finished = true;
+            for (final Line line : beam) {
+                if (timeBudget > 0 && System.nanoTime() - deadline > 0) {
+                    finished = false;
+                    break;
+                }
+                expand(board, line, preview[level - 1], limitHeight, plays, hashes);
+            }
+
+            // out of time, or every line tops out: keep the shorter lines
+            if (!finished || plays.isEmpty()) break;
+
+            beam = selectBeam(plays, hashes);
+            levelsSearched++;
+        }
+
+        if (beam.isEmpty()) return null;
+
+        // the beam is sorted, best first
+        Line best = beam.get(0);
+        Line first = best;
+        while (first.parent != null) {
+            first = first.parent;
+        }
+
+        move.x = first.x;
+        move.y = first.y;
+        move.piece = first.piece;
+        move.score = best.score;
+        return move;
+    }
+
+    /*
+     Rates every play of the piece after the given line, adding them
+     to plays and the hashes of their boards to hashes. The board is
+     left as it was.
+    */
+    private void expand(Board board, Line line, Piece piece, int limitHeight,
+                        List<Line> plays, List<Long> hashes) {
+        board.checkpoint();
+        replay(board, line);
+
+        Piece current = piece;
+        do {
+            final int yBound = limitHeight - current.getHeight() + 1;
+            final int xBound = board.getWidth() - current.getWidth() + 1;
+
+            for (int x = 0; x < xBound; x++) {
+                int y = board.dropHeight(current, x);
+                if (y < yBound) {
+                    int result = board.place(current, x, y);
+                    if (result <= Board.PLACE_ROW_FILLED) {
+                        if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+
+                        plays.add(new Line(line, current, x, y, rateBoard(board)));
+                        hashes.add(board.getHash());
+                        boardsRated++;
+                    }
+
+                    board.undo();
+                }
+            }
+
+            current = current.fastRotation();
+        } while (current != piece);
+
+        board.rollback();
+    }
+
+    /*
+     Returns the best beamWidth plays of a level, best first, keeping
+     the order they were found in among equal scores and dropping
+     those that lead to the same board as a better one.
+    */
+    private List<Line> selectBeam(List<Line> plays, List<Long> hashes) {
+        Integer[] order = new Integer[plays.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (i, j) -> Double.compare(plays.get(i).score, plays.get(j).score));
+
+        List<Line> beam = new ArrayList<>(beamWidth);
+        Set<Long> boards = new HashSet<>();
+        for (int i = 0; i < order.length && beam.size() < beamWidth; i++) {
+            if (boards.add(hashes.get(order[i]))) {
+                beam.add(plays.get(order[i]));
+            }
+        }
+
+        return beam;
+    }
+
+    /*
+     Plays the moves of the line on the board, committing each.
+    */
+    private static void replay(Board board, Line line) {
+        if (line == null) return;
+
+        replay(board, line.parent);
+        board.place(line.piece, line.x, line.y);
+        board.clearRows();
+        board.commit();
+    }
+
+    @Override
+    public double rateBoard(Board board) {
+        return scorer.rateBoard(board);
+    }
+}
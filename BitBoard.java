@@ -0,0 +1,336 @@
+// BitBoard.java
+
+import java.util.Arrays;
+
+/**
+ * The default, bitboard {@link Board} implementation, for boards
+ * up to 64 blocks wide.
+ *
+ * <p>
+ * The grid is stored as a bitboard: one long per row, where bit x
+ * is set when the block (x, y) is filled. Collision tests, full-row
+ * checks and row moves are therefore single word operations, and
+ * the width of a row is just the bit count of its mask.
+ *
+ * <p>
+ * Undo, checkpoints, the hash, clearRows(), insertGarbage(), move(),
+ * checkPlace() and enumeratePlacements() come from AbstractBoard,
+ * which keeps the rows in a ring buffer; row y is read as
+ * rows[(base + y) & rowMask]. This class gives it the one-word row
+ * tests and place(), which writes a piece a row at a time.
+ */
+public class BitBoard extends AbstractBoard {
+    private final long fullRow;
+
+
+    // Here a few trivial methods are provided:
+
+    /**
+     * Creates an empty board of the given width and height
+     * measured in blocks.
+     */
+    public BitBoard(int width, int height) {
+        super(checkWidth(width), height, 1);
+
+        this.fullRow = -1L >>> (Long.SIZE - width);
+    }
+
+    private static int checkWidth(int width) {
+        if (width < 1 || width > Long.SIZE) {
+            throw new IllegalArgumentException("Board width must be between 1 and " + Long.SIZE + ": " + width);
+        }
+
+        return width;
+    }
+
+
+    /**
+     * Creates a committed board of the given size holding the given
+     * row masks, where bit x of rowMasks[y] is set when (x, y) is
+     * filled. Used to convert from the other board representations.
+     */
+    BitBoard(int width, int height, long[] rowMasks) {
+        this(width, height);
+
+        loadRows(rowMasks);
+    }
+
+
+    /**
+     * Returns a new BitBoard holding the blocks this board holds now.
+     * See Board.
+     */
+    public Board copy() {
+        return copyInto(new BitBoard(width, height));
+    }
+
+
+    /*
+     Replaces the blocks of the board with the given row masks and
+     commits, dropping any undo history and open checkpoints. Lets
+     one Board be reused as a view of many stored positions.
+    */
+    void loadRows(long[] rowMasks) {
+        int top = height;
+        while (top > 0 && rowMasks[top - 1] == 0) {
+            top--;
+        }
+
+        ensureRows(top);
+        markDirty(0, Math.max(maxHeight, top));
+        Arrays.fill(rows, 0);
+        base = 0;
+        System.arraycopy(rowMasks, 0, rows, 0, top);
+
+        hash = computeHash();
+        resetFullRows(0, top);
+
+        updateHeights(top);
+        resetJournal();
+        sanityCheck();
+    }
+
+
+    /**
+     * Checks the board for internal consistency -- used
+     * for debugging.
+     */
+    public void sanityCheck() {
+        if (DEBUG) {
+            if (incorrectRows()) {
+                throw new RuntimeException("Incorrect rows!");
+            }
+
+            if (incorrectHash()) {
+                throw new RuntimeException("Incorrect hash!");
+            }
+
+            if (incorrectHeights()) {
+                throw new RuntimeException("Incorrect heights!");
+            }
+
+            if (incorrectMaxHeights()) {
+                throw new RuntimeException("Incorrect max height!");
+            }
+
+            if (incorrectFeatures()) {
+                throw new RuntimeException("Incorrect features!");
+            }
+        }
+    }
+
+    private boolean incorrectMaxHeights() {
+        int currMaxHeight = getCurrentMaxHeight();
+
+        return getMaxHeight() != currMaxHeight;
+    }
+
+    private int getCurrentMaxHeight() {
+        int resultMaxHeight = 0;
+
+        for (int i = 0; i < width; i++) {
+            int currMaxHeight = getCurrentColumnHeight(i);
+
+            resultMaxHeight = currMaxHeight > resultMaxHeight ? currMaxHeight : resultMaxHeight;
+        }
+
+        return resultMaxHeight;
+    }
+
+    private boolean incorrectHash() {
+        return getHash() != computeHash();
+    }
+
+    private boolean incorrectHeights() {
+        for (int i = 0; i < width; i++) {
+            int currHeight = getCurrentColumnHeight(i);
+
+            if (getColumnHeight(i) != currHeight) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private int getCurrentColumnHeight(int r) {
+        int resultHeight = 0;
+
+        for (int i = 0; i < rowCapacity(); i++) {
+            if (filled(r, i)) {
+                resultHeight = i + 1;
+            }
+        }
+
+        return resultHeight;
+    }
+
+    private boolean incorrectRows() {
+        for (int i = 0; i < rows.length; i++) {
+            if ((rows[i] & ~fullRow) != 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the number of filled blocks in
+     * the given row.
+     */
+    public int getRowWidth(int y) {
+        return Long.bitCount(row(y));
+    }
+
+
+    /**
+     * Returns true if the given block is filled in the board.
+     * Blocks outside of the valid width/height area
+     * always return true.
+     */
+    public boolean getGrid(int x, int y) {
+        return !inBounds(x, y) || filled(x, y);
+    }
+
+    /**
+     * Returns the mask of the given row: bit x is set when
+     * the block (x, y) is filled.
+     */
+    long getRowMask(int y) {
+        return row(y);
+    }
+
+    // With one word per row the ring is all of rows[], and masking
+    // with its length lets the JIT drop the bounds check. y must not
+    // be negative.
+    private long row(int y) {
+        final long[] ring = rows;
+        return y < ring.length ? ring[(base + y) & (ring.length - 1)] : 0;
+    }
+
+    boolean filled(int x, int y) {
+        return (row(y) & (1L << x)) != 0;
+    }
+
+    boolean rowFull(int y) {
+        return row(y) == fullRow;
+    }
+
+    boolean rowFullWith(int y, long shape, int x) {
+        return (row(y) | shape << x) == fullRow;
+    }
+
+    boolean rowHits(int y, long shape, int x) {
+        return (row(y) & shape << x) != 0;
+    }
+
+    void flipCell(int x, int y) {
+        setWord(y, 0, row(y) ^ 1L << x);
+    }
+
+    long fullWord(int k) {
+        return fullRow;
+    }
+
+    private boolean inBounds(int x, int y) {
+        return x >= 0 && x < this.width && y >= 0 && y < this.height;
+    }
+
+
+    /**
+     * Attempts to add the body of a piece to the board.
+     * Copies the piece blocks into the board grid.
+     * Returns PLACE_OK for a regular placement, or PLACE_ROW_FILLED
+     * for a regular placement that causes at least one row to be filled.
+     *
+     * <p>Error cases:
+     * A placement may fail in two ways. First, if part of the piece may falls out
+     * of bounds of the board, PLACE_OUT_BOUNDS is returned.
+     * Or the placement may collide with existing blocks in the grid
+     * in which case PLACE_BAD is returned.
+     * In both error cases, the board may be left in an invalid
+     * state. The client can use undo(), to recover the valid, pre-place state.
+     */
+    public int place(Piece piece, int x, int y) {
+        if (!committed) throw new RuntimeException("place commit problem");
+
+        committed = false;
+
+        int result = PLACE_OK;
+
+        // the row masks and hat are primitive arrays held by the
+        // piece, so placing does not allocate anything
+        final long[] pieceRows = piece.getRowMasks();
+
+        if (outOfBounds(piece, x, y)) {
+            result = PLACE_OUT_BOUNDS;
+        } else if (collides(pieceRows, x, y)) {
+            result = PLACE_BAD;
+        } else {
+            ensureRows(y + pieceRows.length);
+            saveHash();
+
+            for (int dy = 0; dy < pieceRows.length; dy++) {
+                final long shape = pieceRows[dy] << x;
+                if (shape == 0) continue;
+
+                final long mask = row(y + dy) | shape;
+                setWord(y + dy, 0, mask);
+                if (mask == fullRow) {
+                    result = PLACE_ROW_FILLED;
+                    markFull(y + dy);
+                }
+            }
+
+            // adding blocks can only raise the heights
+            final int[] hat = piece.getHat();
+            for (int i = 0; i < hat.length; i++) {
+                if (hat[i] != 0 && y + hat[i] > heights[x + i]) {
+                    setHeight(x + i, y + hat[i]);
+                }
+            }
+
+            // the top row of a piece is never empty
+            setMaxHeight(Math.max(maxHeight, y + pieceRows.length));
+            sanityCheck();
+        }
+
+        return result;
+    }
+
+
+    /*
+     Recomputes the heights after rows were cleared, given an upper
+     bound for the new max height (everything above the cleared rows
+     moved down by the number of rows cleared). Walks the rows
+     top-down from the bound, keeping a mask of the columns whose top
+     block has already been seen. Each newly seen bit gives the height
+     of its column, so the walk only covers the rows between the
+     highest and the lowest column top.
+    */
+    void updateHeights(int topBound) {
+        int newMaxHeight = 0;
+
+        long seen = 0;
+        for (int y = topBound - 1; y >= 0 && seen != fullRow; y--) {
+            long newTops = row(y) & ~seen;
+            seen |= newTops;
+
+            if (newTops != 0 && newMaxHeight == 0) {
+                newMaxHeight = y + 1;
+            }
+
+            while (newTops != 0) {
+                setHeight(Long.numberOfTrailingZeros(newTops), y + 1);
+                newTops &= newTops - 1;
+            }
+        }
+
+        for (long empty = fullRow & ~seen; empty != 0; empty &= empty - 1) {
+            setHeight(Long.numberOfTrailingZeros(empty), 0);
+        }
+
+        setMaxHeight(newMaxHeight);
+    }
+}
@@ -1,7 +1,5 @@
 // Board.java
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -11,458 +9,416 @@ import java.util.List;
  * Has an "undo" feature that allows clients to add and remove pieces efficiently.
  * Does not do any drawing or have any idea of pixels. Instead,
  * just represents the abstract 2-d board.
+ *
+ * <p>
+ * This interface is the whole contract between the board and its
+ * clients -- JTetris, the brains and the tests. Implementations
+ * differ only in how they store the grid:
+ * <ul>
+ * <li>{@link ArrayBoard} ("array") keeps a plain 2-d array of booleans.
+ * It is slow but simple, and serves as the reference the other
+ * implementations are tested against.</li>
+ * <li>{@link BitBoard} ("bit") keeps one bit mask per row and an
+ * undo journal. It is the default.</li>
+ * <li>{@link WideBoard} ("wide") keeps each row as a multi-word
+ * bitset, for boards wider than 64. Asking for "bit" with such a
+ * width gives a WideBoard.</li>
+ * </ul>
+ * Boards should be obtained from create(), so the implementation can
+ * be chosen at runtime with the tetris.board system property, e.g.
+ * <pre>
+ * java -Dtetris.board=array JTetris
+ * </pre>
+ * BoardDifferentialTest replays random games on every implementation
+ * and on the reference side by side, and checks that they never differ.
  */
-public class Board {
-    private int width;
-    private int height;
-    private boolean[][] grid;
-    private boolean DEBUG = false;
-    boolean committed;
-    private int maxHeight;
-    private int[] widths;
-    private int[] heights;
-    private boolean[][] xGrid;
-    private int[] xWidths;
-    private int[] xHeights;
-
-
-    // Here a few trivial methods are provided:
-
-    /**
-     * Creates an empty board of the given width and height
-     * measured in blocks.
-     */
-    public Board(int width, int height) {
-        this.width = width;
-        this.height = height;
-        this.grid = new boolean[width][height];
-        this.committed = true;
-
-        this.maxHeight = 0;
-        this.widths = new int[height];
-        this.heights = new int[width];
-
-        this.xGrid = new boolean[width][height];
-        this.xWidths = new int[height];
-        this.xHeights = new int[width];
-    }
-
-
+public interface Board {
     /**
-     * Returns the width of the board in blocks.
+     * The system property naming the implementation create() returns.
      */
-    public int getWidth() {
-        return this.width;
-    }
-
+    String IMPLEMENTATION_PROPERTY = "tetris.board";
 
     /**
-     * Returns the height of the board in blocks.
+     * The implementation used when the property is not set.
      */
-    public int getHeight() {
-        return this.height;
-    }
-
+    String DEFAULT_IMPLEMENTATION = "bit";
 
     /**
-     * Returns the max column height present in the board.
-     * For an empty board this is 0.
+     * The implementation the others are checked against.
      */
-    public int getMaxHeight() {
-        return this.maxHeight;
-    }
+    String REFERENCE_IMPLEMENTATION = "array";
 
 
     /**
-     * Checks the board for internal consistency -- used
-     * for debugging.
+     * Returns the names of all the implementations create() knows.
      */
-    public void sanityCheck() {
-        if (DEBUG) {
-            if (incorrectWidths()) {
-                throw new RuntimeException("Incorrect widths!");
-            }
-
-            if (incorrectHeights()) {
-                throw new RuntimeException("Incorrect heights!");
-            }
-
-            if (incorrectMaxHeights()) {
-                throw new RuntimeException("Incorrect max height!");
-            }
-        }
+    static List<String> implementations() {
+        return List.of("array", "bit", "wide");
     }
 
-    private boolean incorrectMaxHeights() {
-        int currMaxHeight = getCurrentMaxHeight();
-
-        return getMaxHeight() != currMaxHeight;
-    }
-
-    private int getCurrentMaxHeight() {
-        int resultMaxHeight = 0;
-
-        for (int i = 0; i < width; i++) {
-            int currMaxHeight = getCurrentColumnHeight(i);
-
-            resultMaxHeight = currMaxHeight > resultMaxHeight ? currMaxHeight : resultMaxHeight;
-        }
-
-        return resultMaxHeight;
-    }
-
-    private boolean incorrectHeights() {
-        for (int i = 0; i < width; i++) {
-            int currHeight = getCurrentColumnHeight(i);
-
-            if (getColumnHeight(i) != currHeight) {
-                return true;
-            }
-        }
-
-        return false;
+    /**
+     * Creates an empty board of the given width and height, using
+     * the implementation named by the tetris.board system property,
+     * or the default one if it is not set.
+     */
+    static Board create(int width, int height) {
+        return create(System.getProperty(IMPLEMENTATION_PROPERTY, DEFAULT_IMPLEMENTATION), width, height);
     }
 
-    private int getCurrentColumnHeight(int r) {
-        int resultHeight = 0;
-
-        for (int i = 0; i < height; i++) {
-            if (grid[r][i]) {
-                resultHeight = i + 1;
-            }
+    /**
+     * Creates an empty board of the given width and height, using
+     * the named implementation.
+     */
+    static Board create(String implementation, int width, int height) {
+        switch (implementation) {
+            case "array":
+                return new ArrayBoard(width, height);
+            case "bit":
+                return width <= Long.SIZE ? new BitBoard(width, height) : new WideBoard(width, height);
+            case "wide":
+                return new WideBoard(width, height);
+            default:
+                throw new IllegalArgumentException("Unknown board implementation: " + implementation);
         }
-
-        return resultHeight;
     }
 
-    private boolean incorrectWidths() {
-        for (int i = 0; i < height; i++) {
-            int currWidth = getCurrentRowWidth(i);
-
-            if (getRowWidth(i) != currWidth) {
-                return true;
-            }
-        }
 
-        return false;
-    }
+    /**
+     * Returns the width of the board in blocks.
+     */
+    int getWidth();
 
-    private int getCurrentRowWidth(int h) {
-        int resultWidth = 0;
+    /**
+     * Returns the height of the board in blocks.
+     */
+    int getHeight();
 
-        for (int i = 0; i < width; i++) {
-            if (grid[i][h]) {
-                resultWidth++;
-            }
-        }
+    /**
+     * Returns the max column height present in the board.
+     * For an empty board this is 0.
+     */
+    int getMaxHeight();
 
-        return resultWidth;
-    }
+    /**
+     * Checks the board for internal consistency -- used
+     * for debugging.
+     */
+    void sanityCheck();
 
     /**
      * Given a piece and an x, returns the y
      * value where the piece would come to rest
      * if it were dropped straight down at that x.
-     *
-     * <p>
-     * Implementation: use the skirt and the col heights
-     * to compute this fast -- O(skirt length).
      */
-    public int dropHeight(Piece piece, int x) {
-        int y = 0;
-        int[] pieceSkirt = piece.getSkirt();
-
-        for (int i = 0; i < pieceSkirt.length; i++) {
-            int currY = getColumnHeight(x + i) - pieceSkirt[i];
-
-            if (currY > y) {
-                y = currY;
-            }
-        }
-
-        return y;
-    }
-
+    int dropHeight(Piece piece, int x);
 
     /**
      * Returns the height of the given column --
      * i.e. the y value of the highest block + 1.
      * The height is 0 if the column contains no blocks.
      */
-    public int getColumnHeight(int x) {
-        return this.heights[x];
-    }
-
+    int getColumnHeight(int x);
 
     /**
      * Returns the number of filled blocks in
      * the given row.
      */
-    public int getRowWidth(int y) {
-        return this.widths[y];
-    }
-
+    int getRowWidth(int y);
 
     /**
      * Returns true if the given block is filled in the board.
      * Blocks outside of the valid width/height area
      * always return true.
      */
-    public boolean getGrid(int x, int y) {
-        return !inBounds(x, y) || this.grid[x][y];
-    }
+    boolean getGrid(int x, int y);
 
-    private boolean inBounds(int x, int y) {
-        return x >= 0 && x < this.width && y >= 0 && y < this.height;
-    }
+    /**
+     * Returns a 64-bit hash of the blocks in the board.
+     * Boards of the same size holding the same blocks have the same
+     * hash, whatever their implementation.
+     */
+    long getHash();
 
+    /**
+     * Returns the lowest row whose blocks may have changed since the
+     * last resetDirtyRows() -- through place(), move(), clearRows(),
+     * insertGarbage(), undo() or a rollback. Every changed row is in
+     * getDirtyRowStart() to getDirtyRowEnd() - 1, so a display only
+     * has to redraw those rows. The range may be wider than the rows
+     * that really changed, and is empty (start >= end) when nothing
+     * did.
+     */
+    int getDirtyRowStart();
 
-    public static final int PLACE_OK = 0;
-    public static final int PLACE_ROW_FILLED = 1;
-    public static final int PLACE_OUT_BOUNDS = 2;
-    public static final int PLACE_BAD = 3;
+    /**
+     * Returns one past the highest row whose blocks may have changed
+     * since the last resetDirtyRows(). See getDirtyRowStart().
+     */
+    int getDirtyRowEnd();
 
     /**
-     * Attempts to add the body of a piece to the board.
-     * Copies the piece blocks into the board grid.
-     * Returns PLACE_OK for a regular placement, or PLACE_ROW_FILLED
-     * for a regular placement that causes at least one row to be filled.
-     *
-     * <p>Error cases:
-     * A placement may fail in two ways. First, if part of the piece may falls out
-     * of bounds of the board, PLACE_OUT_BOUNDS is returned.
-     * Or the placement may collide with existing blocks in the grid
-     * in which case PLACE_BAD is returned.
-     * In both error cases, the board may be left in an invalid
-     * state. The client can use undo(), to recover the valid, pre-place state.
+     * Empties the range of changed rows, typically once they have
+     * been redrawn.
      */
-    public int place(Piece piece, int x, int y) {
-        if (!committed) throw new RuntimeException("place commit problem");
+    void resetDirtyRows();
 
-        committed = false;
-        copyBackup();
 
-        int result = PLACE_OK;
+    /**
+     * Turns on or off keeping the evaluation features below up to date
+     * as the board changes, so that they cost O(1) to read instead of
+     * a walk over the grid. Turning it on needs a committed board with
+     * no open checkpoints, and costs one walk. Boards that cannot keep
+     * the features ignore this, and compute them on every call.
+     */
+    default void setFeatureTracking(boolean tracking) {
+    }
 
-        TPoint[] pointsToFillByPiece = getPointsToFullByPiece(piece, x, y);
+    /**
+     * Returns true if the evaluation features are kept up to date.
+     */
+    default boolean isFeatureTracking() {
+        return false;
+    }
 
-        if (outOfBoundPiece(pointsToFillByPiece)) {
-            result = PLACE_OUT_BOUNDS;
-        } else if (alreadyFilled(pointsToFillByPiece)) {
-            result = PLACE_BAD;
-        } else {
-            for (final TPoint tp : pointsToFillByPiece) {
-                grid[tp.x][tp.y] = true;
-                if (++widths[tp.y] == width) {
-                    result = PLACE_ROW_FILLED;
-                }
+    /**
+     * Returns the number of holes: empty blocks below the height of
+     * their column.
+     */
+    default int getHoles() {
+        int holes = 0;
+        for (int x = 0; x < getWidth(); x++) {
+            for (int y = getColumnHeight(x) - 2; y >= 0; y--) {
+                if (!getGrid(x, y)) holes++;
             }
-
-            updateHeights();
-            updateMaxHeight();
-            sanityCheck();
         }
 
-        return result;
+        return holes;
     }
 
-    private void updateMaxHeight() {
-        maxHeight = 0;
-
-        for (int i = 0; i < width; i++) {
-            int currMaxHeight = getColumnHeight(i);
-            maxHeight = currMaxHeight > maxHeight ? currMaxHeight : maxHeight;
+    /**
+     * Returns the sum of the column heights.
+     */
+    default int getAggregateHeight() {
+        int sum = 0;
+        for (int x = 0; x < getWidth(); x++) {
+            sum += getColumnHeight(x);
         }
+
+        return sum;
     }
 
-    private boolean alreadyFilled(TPoint[] pointsToFillByPiece) {
-        for (final TPoint tp : pointsToFillByPiece) {
-            if (grid[tp.x][tp.y]) {
-                return true;
-            }
+    /**
+     * Returns the bumpiness: the sum of the height differences
+     * between neighbouring columns.
+     */
+    default int getBumpiness() {
+        int bumpiness = 0;
+        for (int x = 0; x + 1 < getWidth(); x++) {
+            bumpiness += Math.abs(getColumnHeight(x) - getColumnHeight(x + 1));
         }
 
-        return false;
+        return bumpiness;
     }
 
-    private boolean outOfBoundPiece(TPoint[] pointsToFillByPiece) {
-        for (final TPoint tp : pointsToFillByPiece) {
-            if (!inBounds(tp.x, tp.y)) {
-                return true;
+    /**
+     * Returns the row transitions: the number of times the blocks
+     * go from filled to empty or back along each row below the max
+     * height, the walls counting as filled.
+     */
+    default int getRowTransitions() {
+        int transitions = 0;
+        for (int y = 0; y < getMaxHeight(); y++) {
+            for (int x = 0; x <= getWidth(); x++) {
+                if (getGrid(x - 1, y) != getGrid(x, y)) transitions++;
             }
         }
 
-        return false;
+        return transitions;
     }
 
-    private TPoint[] getPointsToFullByPiece(Piece piece, int x, int y) {
-        TPoint[] pieceBody = piece.getBody();
-
-        TPoint[] resultPoints = new TPoint[pieceBody.length];
-
-        for (int i = 0; i < pieceBody.length; i++) {
-            TPoint pieceCurrP = pieceBody[i];
-
-            int xToFill = x + pieceCurrP.x;
-            int yToFill = y + pieceCurrP.y;
+    /**
+     * Returns the column transitions: the number of times the blocks
+     * go from filled to empty or back up each column, the floor
+     * counting as filled and everything above the board as empty. An
+     * empty column has one.
+     */
+    default int getColumnTransitions() {
+        int transitions = 0;
+        for (int x = 0; x < getWidth(); x++) {
+            final int top = getColumnHeight(x);
+            for (int y = 0; y < top; y++) {
+                if (getGrid(x, y - 1) != getGrid(x, y)) transitions++;
+            }
 
-            TPoint pointToFill = new TPoint(xToFill, yToFill);
-            resultPoints[i] = pointToFill;
+            // the empty block above the column
+            transitions++;
         }
 
-        return resultPoints;
+        return transitions;
     }
 
-
     /**
-     * Deletes rows that are filled all the way across, moving
-     * things above down. Returns the number of rows cleared.
+     * Returns how deep the given column lies below the lower of its
+     * neighbours, or 0 if it does not. The walls count as higher than
+     * any column.
      */
-    public int clearRows() {
-        if (committed) {
-            copyBackup();
-            committed = false;
-        }
-
-        int rowsCleared = 0;
+    default int getWellDepth(int x) {
+        final int left = x > 0 ? getColumnHeight(x - 1) : Integer.MAX_VALUE;
+        final int right = x + 1 < getWidth() ? getColumnHeight(x + 1) : Integer.MAX_VALUE;
+        final int walls = Math.min(left, right);
 
-        List<Integer> filledRowsIndexes = getFilledRowsIndexes();
-        rowsCleared = filledRowsIndexes.size();
-
-        clearFilledRows(filledRowsIndexes);
-
-        makeRowsShiftDown(filledRowsIndexes);
-
-        updateHeights();
-
-        maxHeight -= rowsCleared;
-
-        sanityCheck();
-
-        return rowsCleared;
+        return walls == Integer.MAX_VALUE ? 0 : Math.max(0, walls - getColumnHeight(x));
     }
 
-    private void copyBackup() {
-        for (int i = 0; i < width; i++) {
-            System.arraycopy(grid[i], 0, xGrid[i], 0, height);
+    /**
+     * Returns the sum of the well depths of all the columns.
+     */
+    default int getWellDepths() {
+        int sum = 0;
+        for (int x = 0; x < getWidth(); x++) {
+            sum += getWellDepth(x);
         }
 
-        System.arraycopy(widths, 0, xWidths, 0, height);
-        System.arraycopy(heights, 0, xHeights, 0, width);
+        return sum;
     }
 
-    private void updateHeights() {
-        Arrays.fill(heights, 0);
 
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                if (grid[i][j]) {
-                    heights[i] = j + 1;
-                }
-            }
-        }
-    }
+    int PLACE_OK = 0;
+    int PLACE_ROW_FILLED = 1;
+    int PLACE_OUT_BOUNDS = 2;
+    int PLACE_BAD = 3;
 
-    private void clearFilledRows(List<Integer> filledRowsIndexes) {
-        for (final int row : filledRowsIndexes) {
-            for (int i = 0; i < width; i++) {
-                grid[i][row] = false;
-                widths[row] = 0;
-            }
-        }
-    }
-
-    private void makeRowsShiftDown(List<Integer> filledRowsIndexes) {
-        for (final int row : filledRowsIndexes) {
-            for (int i = row; i < maxHeight - 1; i++) {
-                copyRowFromTo(i + 1, i);
-                widths[i] = widths[i + 1];
-                clearFilledRows(List.of(i + 1));
-            }
-        }
+    /**
+     * Attempts to add the body of a piece to the board.
+     * Copies the piece blocks into the board grid.
+     * Returns PLACE_OK for a regular placement, or PLACE_ROW_FILLED
+     * for a regular placement that causes at least one row to be filled.
+     *
+     * <p>Error cases:
+     * A placement may fail in two ways. First, if part of the piece may falls out
+     * of bounds of the board, PLACE_OUT_BOUNDS is returned.
+     * Or the placement may collide with existing blocks in the grid
+     * in which case PLACE_BAD is returned.
+     * In both error cases, the board may be left in an invalid
+     * state. The client can use undo(), to recover the valid, pre-place state.
+     */
+    int place(Piece piece, int x, int y);
 
-        if (filledRowsIndexes.size() > 0) {
-            clearFilledRows(List.of(maxHeight - 1));
-        }
-    }
+    /**
+     * Returns what place() would return for the given piece and
+     * position -- PLACE_OK, PLACE_ROW_FILLED, PLACE_OUT_BOUNDS or
+     * PLACE_BAD -- without changing the board. The board may be in
+     * either state.
+     */
+    int checkPlace(Piece piece, int x, int y);
 
-    private void copyRowFromTo(int from, int to) {
-        for (int i = 0; i < width; i++) {
-            grid[i][to] = grid[i][from];
-        }
-    }
+    /**
+     * Moves a piece that was just placed, and is still uncommitted,
+     * from (x, y) to newPiece at (newX, newY) -- e.g. one step down,
+     * sideways or to its next rotation. Returns the same codes as
+     * place(), but on failure the board is left as it was, with the
+     * piece at its old position. Either way a later undo() still
+     * reverts to the state before the original place().
+     */
+    int move(Piece piece, int x, int y, Piece newPiece, int newX, int newY);
 
-    private List<Integer> getFilledRowsIndexes() {
-        List<Integer> resultIndexes = new ArrayList<>();
+    /**
+     * Returns the number of (rotation, x) pairs the given root piece
+     * has on this board, which bounds the number of placements
+     * enumeratePlacements() can report. Use it to size the arrays.
+     */
+    int countPlacements(Piece root);
 
-        for (int i = widths.length - 1; i >= 0; i--) {
-            if (widths[i] == width) {
-                resultIndexes.add(i);
-            }
-        }
+    /**
+     * Computes every legal drop of every rotation of the given root
+     * piece in one pass, without changing the board. Candidate i is
+     * reported as the rotation index rotations[i] (0 for the root,
+     * k for k fastRotation() steps from it), its column xs[i], its
+     * landing row ys[i], the number of rows it would clear
+     * rowsCleared[i], and -- if resultHeights is not null -- the
+     * column heights of the board after placing it and clearing rows,
+     * in resultHeights[i * getWidth()] up to
+     * resultHeights[(i + 1) * getWidth() - 1].
+     *
+     * <p>
+     * As in Brain.bestMove(), a drop is legal if the piece lands
+     * fully below limitHeight. The piece must come from
+     * Piece.getPieces() or a PieceSet. Returns the number of
+     * candidates reported; the arrays must have room for
+     * countPlacements(root) of them.
+     */
+    int enumeratePlacements(Piece root, int limitHeight, int[] rotations, int[] xs, int[] ys,
+                            int[] rowsCleared, int[] resultHeights);
 
-        return resultIndexes;
-    }
+    /**
+     * Deletes rows that are filled all the way across, moving
+     * things above down. Returns the number of rows cleared.
+     */
+    int clearRows();
 
+    /**
+     * Inserts count garbage rows at the bottom of the board, pushing
+     * everything up: rows filled all the way across except for the
+     * block at holeColumn, as sent to the opponent in versus play.
+     * Returns PLACE_OK, or PLACE_OUT_BOUNDS, leaving the board
+     * unchanged, if blocks would be pushed above the top. Like
+     * clearRows(), this may follow a place() before the commit(),
+     * and undo() takes it back.
+     */
+    int insertGarbage(int count, int holeColumn);
 
     /**
      * Reverts the board to its state before up to one place
-     * and one clearRows();
+     * and one clearRows() or insertGarbage();
      * If the conditions for undo() are not met, such as
      * calling undo() twice in a row, then the second undo() does nothing.
      * See the overview docs.
      */
-    public void undo() {
-        if (!committed) {
-            swapBackup();
-            updateMaxHeight();
-            commit();
-            sanityCheck();
-        }
-    }
+    void undo();
 
-    private void swapBackup() {
-        boolean[][] tempGrid = xGrid;
-        xGrid = grid;
-        grid = tempGrid;
+    /**
+     * Puts the board in the committed state.
+     */
+    void commit();
 
-        int[] tempWidths = xWidths;
-        xWidths = widths;
-        widths = tempWidths;
+    /**
+     * Opens a new undo level at the current (committed) state and
+     * returns its depth, starting from 0 for the outermost one.
+     * Any sequence of place(), clearRows(), commit() and undo() may
+     * follow; rollbackTo() with the returned depth brings the board
+     * back to exactly this state.
+     */
+    int checkpoint();
 
-        int[] tempHeights = xHeights;
-        xHeights = heights;
-        heights = tempHeights;
-    }
+    /**
+     * Reverts the board to the most recent checkpoint and closes it.
+     */
+    void rollback();
 
+    /**
+     * Reverts the board to the checkpoint of the given depth, closing
+     * it and every checkpoint opened after it. The board is left
+     * committed.
+     */
+    void rollbackTo(int depth);
 
     /**
-     * Puts the board in the committed state.
+     * Closes the most recent checkpoint but keeps the changes made
+     * since it was opened. They become part of the enclosing
+     * checkpoint, if there is one.
      */
-    public void commit() {
-        committed = true;
-    }
+    void release();
 
+    /**
+     * Returns the number of currently open checkpoints.
+     */
+    int getCheckpointDepth();
 
-    /*
-     Renders the board state as a big String, suitable for printing.
-     This is the sort of print-obj-state utility that can help see complex
-     state change over time.
-     (provided debugging utility)
+    /**
+     * Returns a new board of the same implementation and size holding
+     * the blocks this board holds now, with the same hash. The copy is
+     * committed, with no undo history or checkpoints, and shares
+     * nothing with this board -- e.g. for another thread to search on.
      */
-    public String toString() {
-        StringBuilder buff = new StringBuilder();
-        for (int y = height - 1; y >= 0; y--) {
-            buff.append('|');
-            for (int x = 0; x < width; x++) {
-                if (getGrid(x, y)) buff.append('+');
-                else buff.append(' ');
-            }
-            buff.append("|\n");
-        }
-        for (int x = 0; x < width + 2; x++) buff.append('-');
-        return (buff.toString());
-    }
+    Board copy();
 }
-
-
@@ -0,0 +1,188 @@
+// BoardBenchmark.java
+
+/**
+ * Micro-benchmark for the Board hot path.
+ * Plays every rotation of every piece at every x on a board with
+ * a few rows of rubble at the bottom -- the same place / clearRows /
+ * undo loop that DefaultBrain.bestMove() runs -- and prints the
+ * average cost of one placement.
+ * <p>
+ * The first series of boards differ only in their declared height,
+ * so the numbers should stay flat: the cost of a placement must
+ * depend on the blocks it touches, not on the size of the board.
+ * <p>
+ * The second series grows the width from 10 to 4096 columns, next
+ * to the reference ArrayBoard. Wide boards have more placements per
+ * round, so they are run for fewer rounds.
+ * <p>
+ * The third series is a versus-style garbage workload: on stacks of
+ * garbage of growing height, insertGarbage() pushes two rows under
+ * the stack and they are dug out again by filling their hole and
+ * clearing them. Each row cleared at the bottom should cost the same
+ * however high the stack is.
+ * <p>
+ * Run with: java BoardBenchmark, adding -Dtetris.board=... to
+ * measure another Board implementation.
+ */
+public class BoardBenchmark {
+    private static final int WIDTH = 10;
+    private static final int[] HEIGHTS = {24, 240, 2400, 24000, 1_000_000};
+    private static final int[] WIDTHS = {10, 64, 512, 4096};
+    private static final int WIDTHS_HEIGHT = 24;
+    private static final int[] STACKS = {20, 200, 2000, 20000};
+    private static final int GARBAGE_ROWS = 2;
+    private static final int GARBAGE_ROUNDS = 200_000;
+    private static final int WARMUP_ROUNDS = 5_000;
+    private static final int ROUNDS = 10_000;
+
+    public static void main(String[] args) {
+        System.out.println("Placement cost by board height (width " + WIDTH + ")");
+
+        for (final int height : HEIGHTS) {
+            Board board = makeRubbleBoard(WIDTH, height);
+
+            placeAll(board, WARMUP_ROUNDS);
+
+            long start = System.nanoTime();
+            long placements = placeAll(board, ROUNDS);
+            long elapsed = System.nanoTime() - start;
+
+            System.out.printf("  height %7d: %7.1f ns/placement%n", height, (double) elapsed / placements);
+        }
+
+        System.out.println("Placement cost by board width (height " + WIDTHS_HEIGHT + ")");
+
+        for (final int width : WIDTHS) {
+            // about the same number of placements for every width
+            int rounds = Math.max(1, ROUNDS * WIDTH / width);
+
+            System.out.printf("  width %5d: %9.1f ns/placement, %9.1f ns with the reference%n", width,
+                    nanosPerPlacement(makeRubbleBoard(width, WIDTHS_HEIGHT), rounds),
+                    nanosPerPlacement(makeRubbleBoard(Board.create(Board.REFERENCE_IMPLEMENTATION, width,
+                            WIDTHS_HEIGHT)), Math.max(1, rounds / 10)));
+        }
+
+        System.out.println("Garbage insert and dig cost by stack height (width " + WIDTH + ")");
+
+        for (final int stack : STACKS) {
+            // the reference copies the whole board on every change
+            int referenceRounds = Math.max(10, GARBAGE_ROUNDS / stack);
+
+            System.out.printf("  stack %6d: %9.1f ns/row, %9.1f ns with the reference%n", stack,
+                    nanosPerGarbageRow(makeGarbageBoard(Board.create(WIDTH, stack + 2 * GARBAGE_ROWS), stack),
+                            GARBAGE_ROUNDS),
+                    nanosPerGarbageRow(makeGarbageBoard(Board.create(Board.REFERENCE_IMPLEMENTATION, WIDTH,
+                            stack + 2 * GARBAGE_ROWS), stack), referenceRounds));
+        }
+    }
+
+    private static double nanosPerPlacement(Board board, int rounds) {
+        placeAll(board, Math.max(1, rounds / 2));
+
+        long start = System.nanoTime();
+        long placements = placeAll(board, rounds);
+        long elapsed = System.nanoTime() - start;
+
+        return (double) elapsed / placements;
+    }
+
+    private static double nanosPerGarbageRow(Board board, int rounds) {
+        digAll(board, Math.max(1, rounds / 2));
+
+        long start = System.nanoTime();
+        long rows = digAll(board, rounds);
+        long elapsed = System.nanoTime() - start;
+
+        return (double) elapsed / rows;
+    }
+
+    /*
+     Runs the given number of rounds of receiving garbage and digging
+     it out again, and returns the number of garbage rows cleared.
+    */
+    private static long digAll(Board board, int rounds) {
+        Piece block = new Piece("0 0");
+        long rows = 0;
+
+        for (int round = 0; round < rounds; round++) {
+            final int hole = round % board.getWidth();
+
+            board.insertGarbage(GARBAGE_ROWS, hole);
+            board.commit();
+
+            for (int i = 0; i < GARBAGE_ROWS; i++) {
+                board.place(block, hole, 0);
+                board.clearRows();
+                board.commit();
+                rows++;
+            }
+        }
+
+        return rows;
+    }
+
+    /*
+     Builds a board with the given number of garbage rows, each with
+     its hole in a different column from the row below.
+    */
+    private static Board makeGarbageBoard(Board board, int stack) {
+        for (int y = 0; y < stack; y++) {
+            board.insertGarbage(1, (3 * y + 1) % board.getWidth());
+            board.commit();
+        }
+
+        return board;
+    }
+
+    /*
+     Runs the given number of rounds of the brain loop over all
+     pieces and returns the number of placements made.
+    */
+    private static long placeAll(Board board, int rounds) {
+        Piece[] pieces = Piece.getPieces();
+        long placements = 0;
+
+        for (int round = 0; round < rounds; round++) {
+            for (final Piece root : pieces) {
+                Piece current = root;
+                do {
+                    final int xBound = board.getWidth() - current.getWidth() + 1;
+                    for (int x = 0; x < xBound; x++) {
+                        int y = board.dropHeight(current, x);
+                        int result = board.place(current, x, y);
+                        if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+                        board.undo();
+                        placements++;
+                    }
+                    current = current.fastRotation();
+                } while (current != root);
+            }
+        }
+
+        return placements;
+    }
+
+    /*
+     Builds a board with four rows of rubble, each with one hole,
+     so some placements fill rows and some do not.
+    */
+    static Board makeRubbleBoard(int width, int height) {
+        return makeRubbleBoard(Board.create(width, height));
+    }
+
+    private static Board makeRubbleBoard(Board board) {
+        final int width = board.getWidth();
+        Piece block = new Piece("0 0");
+
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < width; x++) {
+                if (x != (3 * y + 1) % width) {
+                    board.place(block, x, y);
+                    board.commit();
+                }
+            }
+        }
+
+        return board;
+    }
+}
@@ -0,0 +1,401 @@
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+
+/**
+ * Differential test harness for the Board implementations.
+ * Drives every implementation side by side with the reference one
+ * through the same random sequence of place(), move(), clearRows(),
+ * insertGarbage(), undo(), commit(), checkpoint and copy() calls, and
+ * checks after each step that both returned the same result and hold
+ * the same state: blocks, row widths, column heights, max height and
+ * hash. Each board's dirty-row range must also cover every row that
+ * changed since it was last reset. The boards under test track the
+ * evaluation features, which must match the reference's, computed
+ * from scratch.
+ * <p>
+ * The unit test replays some tens of thousands of steps per
+ * board size. For a longer soak, e.g. before switching the
+ * default implementation, run
+ * <pre>
+ * java BoardDifferentialTest [steps] [seed]
+ * </pre>
+ */
+public class BoardDifferentialTest extends TestCase {
+    private static final int[][] SIZES = {{10, 24}, {3, 6}, {1, 5}, {7, 40}, {5, 300}, {64, 12}, {65, 10}, {130, 8}};
+    private static final int TEST_STEPS = 20_000;
+    private static final int MAX_CHECKPOINTS = 5;
+
+    public void testAgainstReference() {
+        for (final String implementation : Board.implementations()) {
+            if (!implementation.equals(Board.REFERENCE_IMPLEMENTATION)) {
+                replayAllSizes(implementation, TEST_STEPS, 108);
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        int steps = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+
+        for (final String implementation : Board.implementations()) {
+            if (!implementation.equals(Board.REFERENCE_IMPLEMENTATION)) {
+                long start = System.nanoTime();
+                replayAllSizes(implementation, steps, seed);
+                System.out.printf("%s: %d steps per size, seed %d, ok (%.1f s)%n",
+                        implementation, steps, seed, (System.nanoTime() - start) / 1e9);
+            }
+        }
+    }
+
+    private static void replayAllSizes(String implementation, int steps, long seed) {
+        for (final int[] size : SIZES) {
+            new Replay(implementation, size[0], size[1], seed).run(steps);
+        }
+    }
+
+
+    /*
+     One random replay on a pair of boards. Tracks what the caller of
+     a board has to track anyway -- whether it is committed, the piece
+     placed since the last commit -- so that only legal sequences of
+     calls are made.
+    */
+    private static class Replay {
+        private final String implementation;
+        private final int width;
+        private final int height;
+        private final long seed;
+        private final Random random;
+        private final Piece[] pieces;
+
+        private Board reference;
+        private Board board;
+        private boolean[][] shown;
+        private boolean committed;
+        private Piece placed;
+        private int placedX;
+        private int placedY;
+        private int step;
+
+        Replay(String implementation, int width, int height, long seed) {
+            this.implementation = implementation;
+            this.width = width;
+            this.height = height;
+            this.seed = seed;
+            this.random = new Random(seed);
+
+            // every rotation of every piece, plus a single block that
+            // fills the odd holes and so gets rows cleared more often
+            Piece[] roots = Piece.getPieces();
+            int count = 1;
+            for (final Piece root : roots) {
+                count += rotationCount(root);
+            }
+            this.pieces = new Piece[count];
+            int i = 0;
+            for (final Piece root : roots) {
+                Piece current = root;
+                do {
+                    pieces[i++] = current;
+                    current = current.fastRotation();
+                } while (current != root);
+            }
+            pieces[i] = new Piece("0 0");
+
+            reset();
+        }
+
+        private static int rotationCount(Piece root) {
+            int count = 0;
+            Piece current = root;
+            do {
+                count++;
+                current = current.fastRotation();
+            } while (current != root);
+            return count;
+        }
+
+        private void reset() {
+            reference = Board.create(Board.REFERENCE_IMPLEMENTATION, width, height);
+            board = Board.create(implementation, width, height);
+            board.setFeatureTracking(true);
+            shown = new boolean[width][height];
+            committed = true;
+            placed = null;
+        }
+
+        void run(int steps) {
+            for (step = 0; step < steps; step++) {
+                if (committed) {
+                    committedStep();
+                } else {
+                    uncommittedStep();
+                }
+
+                checkSameState();
+            }
+        }
+
+        private void committedStep() {
+            int depth = reference.getCheckpointDepth();
+
+            // start over once the stack gets near the top
+            if (depth == 0 && reference.getMaxHeight() > height - 4) {
+                reset();
+                return;
+            }
+
+            int choice = random.nextInt(20);
+            if (choice < 11) {
+                place();
+            } else if (choice < 12) {
+                insertGarbage();
+            } else if (choice < 14) {
+                checkPlace();
+            } else if (choice < 15) {
+                enumeratePlacements();
+            } else if (choice < 17 && depth < MAX_CHECKPOINTS) {
+                checkSame("checkpoint", reference.checkpoint(), board.checkpoint());
+            } else if (choice < 19 && depth > 0) {
+                rollback(depth);
+            } else if (depth > 0) {
+                reference.release();
+                board.release();
+            } else {
+                // carry on with copies, which must be the same boards;
+                // their dirty rows start from now
+                reference = reference.copy();
+                board = board.copy();
+                resetDirtyRows();
+            }
+        }
+
+        private void uncommittedStep() {
+            int depth = reference.getCheckpointDepth();
+
+            int choice = random.nextInt(20);
+            if (choice < 7 && placed != null) {
+                move();
+            } else if (choice < 11) {
+                checkSame("clearRows", reference.clearRows(), board.clearRows());
+                placed = null;
+            } else if (choice < 12) {
+                insertGarbage();
+            } else if (choice < 15) {
+                reference.undo();
+                board.undo();
+                committed = true;
+            } else if (choice < 19 || depth == 0) {
+                reference.commit();
+                board.commit();
+                committed = true;
+            } else {
+                rollback(depth);
+            }
+        }
+
+        private void place() {
+            Piece piece = randomPiece();
+            int x = random.nextInt(Math.max(1, width - piece.getWidth() + 3)) - 1;
+            int y;
+            if (x < 0 || x + piece.getWidth() > width) {
+                y = random.nextInt(height);
+            } else {
+                // mostly drops, sometimes a spot that may collide
+                y = reference.dropHeight(piece, x) - (random.nextInt(4) == 0 ? 1 : 0);
+            }
+
+            int result = reference.place(piece, x, y);
+            checkSame("place(" + x + ", " + y + ")", result, board.place(piece, x, y));
+
+            if (result <= Board.PLACE_ROW_FILLED) {
+                placed = piece;
+                placedX = x;
+                placedY = y;
+            } else {
+                reference.undo();
+                board.undo();
+                placed = null;
+            }
+            committed = result > Board.PLACE_ROW_FILLED;
+        }
+
+        private void move() {
+            // the single block has no rotations linked
+            Piece newPiece = random.nextBoolean() && placed.fastRotation() != null ? placed.fastRotation() : placed;
+            int newX = placedX + random.nextInt(3) - 1;
+            int newY = placedY - random.nextInt(2);
+
+            int result = reference.move(placed, placedX, placedY, newPiece, newX, newY);
+            checkSame("move(" + newX + ", " + newY + ")", result,
+                    board.move(placed, placedX, placedY, newPiece, newX, newY));
+
+            if (result <= Board.PLACE_ROW_FILLED) {
+                placed = newPiece;
+                placedX = newX;
+                placedY = newY;
+            }
+        }
+
+        private void insertGarbage() {
+            int count = random.nextInt(4);
+            int holeColumn = random.nextInt(width);
+
+            int result = reference.insertGarbage(count, holeColumn);
+            checkSame("insertGarbage(" + count + ", " + holeColumn + ")", result,
+                    board.insertGarbage(count, holeColumn));
+
+            if (result == Board.PLACE_OK) {
+                committed = false;
+                placed = null;
+            }
+        }
+
+        private void checkPlace() {
+            Piece piece = randomPiece();
+            int x = random.nextInt(width + 2) - 1;
+            int y = random.nextInt(height + 2) - 1;
+
+            checkSame("checkPlace(" + x + ", " + y + ")",
+                    reference.checkPlace(piece, x, y), board.checkPlace(piece, x, y));
+        }
+
+        private void enumeratePlacements() {
+            Piece root = Piece.getPieces()[random.nextInt(Piece.getPieces().length)];
+            int limitHeight = height - random.nextInt(4);
+
+            int capacity = reference.countPlacements(root);
+            checkSame("countPlacements", capacity, board.countPlacements(root));
+
+            int[][] expected = new int[5][];
+            int[][] actual = new int[5][];
+            for (int i = 0; i < 4; i++) {
+                expected[i] = new int[capacity];
+                actual[i] = new int[capacity];
+            }
+            expected[4] = new int[capacity * width];
+            actual[4] = new int[capacity * width];
+
+            int count = reference.enumeratePlacements(root, limitHeight,
+                    expected[0], expected[1], expected[2], expected[3], expected[4]);
+            checkSame("enumeratePlacements", count, board.enumeratePlacements(root, limitHeight,
+                    actual[0], actual[1], actual[2], actual[3], actual[4]));
+
+            for (int i = 0; i < expected.length; i++) {
+                int length = i < 4 ? count : count * width;
+                for (int j = 0; j < length; j++) {
+                    if (expected[i][j] != actual[i][j]) {
+                        mismatch("enumeratePlacements result " + i + "[" + j + "]");
+                    }
+                }
+            }
+        }
+
+        private void rollback(int depth) {
+            if (random.nextBoolean()) {
+                reference.rollback();
+                board.rollback();
+            } else {
+                int to = random.nextInt(depth);
+                reference.rollbackTo(to);
+                board.rollbackTo(to);
+            }
+
+            committed = true;
+            placed = null;
+        }
+
+        private Piece randomPiece() {
+            return pieces[random.nextInt(pieces.length)];
+        }
+
+
+        private void checkSame(String what, long expected, long actual) {
+            if (expected != actual) {
+                mismatch(what + ": reference gave " + expected + ", " + implementation + " gave " + actual);
+            }
+        }
+
+        private void checkSameState() {
+            checkSame("max height", reference.getMaxHeight(), board.getMaxHeight());
+            checkSame("checkpoint depth", reference.getCheckpointDepth(), board.getCheckpointDepth());
+
+            for (int x = 0; x < width; x++) {
+                if (reference.getColumnHeight(x) != board.getColumnHeight(x)) {
+                    mismatch("height of column " + x);
+                }
+            }
+
+            for (int y = 0; y < height; y++) {
+                if (reference.getRowWidth(y) != board.getRowWidth(y)) {
+                    mismatch("width of row " + y);
+                }
+
+                for (int x = 0; x < width; x++) {
+                    if (reference.getGrid(x, y) != board.getGrid(x, y)) {
+                        mismatch("block (" + x + ", " + y + ")");
+                    }
+                }
+            }
+
+            checkSame("hash", reference.getHash(), board.getHash());
+
+            // the reference computes the features from scratch
+            checkSame("holes", reference.getHoles(), board.getHoles());
+            checkSame("aggregate height", reference.getAggregateHeight(), board.getAggregateHeight());
+            checkSame("bumpiness", reference.getBumpiness(), board.getBumpiness());
+            checkSame("row transitions", reference.getRowTransitions(), board.getRowTransitions());
+            checkSame("column transitions", reference.getColumnTransitions(), board.getColumnTransitions());
+            checkSame("well depths", reference.getWellDepths(), board.getWellDepths());
+            checkDirtyRows();
+        }
+
+        /*
+         The rows that differ from the grid as it was at the last
+         resetDirtyRows() must be in the dirty range of both boards.
+         Resets now and then, so the ranges also get to grow over
+         several steps.
+        */
+        private void checkDirtyRows() {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (reference.getGrid(x, y) != shown[x][y]) {
+                        checkDirty(reference, y);
+                        checkDirty(board, y);
+                        break;
+                    }
+                }
+            }
+
+            if (random.nextBoolean()) {
+                resetDirtyRows();
+            }
+        }
+
+        private void resetDirtyRows() {
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++) {
+                    shown[x][y] = reference.getGrid(x, y);
+                }
+            }
+            reference.resetDirtyRows();
+            board.resetDirtyRows();
+        }
+
+        private void checkDirty(Board dirty, int y) {
+            if (y < dirty.getDirtyRowStart() || y >= dirty.getDirtyRowEnd()) {
+                mismatch("row " + y + " changed outside the dirty rows of "
+                        + (dirty == reference ? "the reference" : implementation)
+                        + ", " + dirty.getDirtyRowStart() + " to " + dirty.getDirtyRowEnd());
+            }
+        }
+
+        private void mismatch(String message) {
+            TestCase.fail(implementation + " " + width + "x" + height + ", seed " + seed
+                    + ", step " + step + ": " + message + "\nreference:\n" + reference
+                    + "\n" + implementation + ":\n" + board);
+        }
+    }
+}
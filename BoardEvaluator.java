@@ -0,0 +1,118 @@
+// BoardEvaluator.java
+
+/**
+ * Scores boards as DefaultBrain.rateBoard() does -- from the max
+ * height, the average height and the holes -- but from arrays of
+ * column heights, so that every play of a piece can be scored in one
+ * batch from the result heights of Board.enumeratePlacements().
+ * <p>
+ * The holes need no pass over the grid: every block below the height
+ * of its column is either filled or a hole, so the holes are the sum
+ * of the heights less the number of blocks, and a play changes the
+ * number of blocks by the size of the piece less a full row per row
+ * cleared. Scoring a board then comes down to the sum and the max of
+ * its heights.
+ * <p>
+ * This class is the scalar backend. The vector backend,
+ * VectorBoardEvaluator, does the sums and maxes with the incubating
+ * Vector API (jdk.incubator.vector). It lives apart, in vector/,
+ * since it only builds and runs with the module added:
+ * <pre>
+ * javac --add-modules jdk.incubator.vector -d out *.java vector/*.java
+ * java --add-modules jdk.incubator.vector -Dtetris.evaluator=vector -cp out JBrainTetris
+ * </pre>
+ * create() returns it when the tetris.evaluator system property asks
+ * for "vector", and falls back to this class when it cannot be
+ * loaded. Both give the same scores, bit for bit.
+ */
+public class BoardEvaluator {
+    /**
+     * The system property naming the backend create() returns.
+     */
+    public static final String EVALUATOR_PROPERTY = "tetris.evaluator";
+
+    private static final String VECTOR_CLASS = "VectorBoardEvaluator";
+
+
+    /**
+     * Returns the backend named by the tetris.evaluator system
+     * property, or the scalar one if it is not set.
+     */
+    public static BoardEvaluator create() {
+        return create(System.getProperty(EVALUATOR_PROPERTY, "scalar"));
+    }
+
+    /**
+     * Returns the named backend, "scalar" or "vector". Asking for
+     * "vector" gives the scalar backend when the vector one is not
+     * compiled in or the jdk.incubator.vector module is missing;
+     * getName() tells which one was made.
+     */
+    public static BoardEvaluator create(String name) {
+        switch (name) {
+            case "scalar":
+                return new BoardEvaluator();
+            case "vector":
+                try {
+                    return (BoardEvaluator) Class.forName(VECTOR_CLASS).getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    return new BoardEvaluator();
+                }
+            default:
+                throw new IllegalArgumentException("Unknown board evaluator: " + name);
+        }
+    }
+
+
+    /**
+     * Returns the name of the backend, as create() takes it.
+     */
+    public String getName() {
+        return "scalar";
+    }
+
+    /**
+     * Returns the score of a board with the given column heights, in
+     * heights[offset] to heights[offset + width - 1], and number of
+     * blocks -- the same as DefaultBrain.rateBoard() for that board.
+     */
+    public double rate(int[] heights, int offset, int width, int blocks) {
+        int sumHeight = 0;
+        int maxHeight = 0;
+
+        for (int x = offset; x < offset + width; x++) {
+            sumHeight += heights[x];
+            maxHeight = Math.max(maxHeight, heights[x]);
+        }
+
+        return score(width, maxHeight, sumHeight, sumHeight - blocks);
+    }
+
+    /**
+     * Scores count plays at once, as reported by enumeratePlacements()
+     * on a board of the given width: play i leaves the column heights
+     * in heights[i * width] to heights[(i + 1) * width - 1] and clears
+     * rowsCleared[i] rows. blocksPlaced is the number of blocks of the
+     * board plus those of the piece. The score of play i goes in
+     * scores[i].
+     */
+    public void rateAll(int width, int count, int[] heights, int[] rowsCleared, int blocksPlaced,
+                        double[] scores) {
+        for (int i = 0; i < count; i++) {
+            scores[i] = rate(heights, i * width, width, blocksPlaced - width * rowsCleared[i]);
+        }
+    }
+
+    /*
+     DefaultBrain's weighting, shared by the backends so that they
+     round the same way.
+    */
+    static double score(int width, int maxHeight, int sumHeight, int holes) {
+        double avgHeight = ((double) sumHeight) / width;
+        return (8 * maxHeight + 40 * avgHeight + 1.25 * holes);
+    }
+
+    public String toString() {
+        return "BoardEvaluator[" + getName() + "]";
+    }
+}
@@ -0,0 +1,158 @@
+// BoardStore.java
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A compact, off-heap store for very many boards of one size.
+ * Each board is kept as its row masks packed into
+ * ceil(width / 8) bytes per row in a direct ByteBuffer -- 48 bytes
+ * for a standard 10x24 board -- with no object headers, backup
+ * arrays or column heights. Heights are rebuilt when a board is
+ * loaded.
+ * <p>
+ * Stored boards are used through a BitBoard acting as a view:
+ * <pre>
+ * BitBoard view = store.load(i, view);   // reuses the view, no allocation
+ * int y = view.dropHeight(piece, x);
+ * view.place(piece, x, y);
+ * double score = brain.rateBoard(view);
+ * store.set(i, view);                    // write the result back, if wanted
+ * </pre>
+ * Not thread-safe: each thread should use its own view, and the
+ * store itself must not be written while others read it.
+ */
+public class BoardStore {
+    private final int width;
+    private final int height;
+    private final int bytesPerRow;
+    private final int bytesPerBoard;
+    private final int capacity;
+    private final ByteBuffer buffer;
+    private final long[] scratchRows;
+    private int size;
+
+    /**
+     * Creates an empty store with room for the given number
+     * of boards of the given width and height.
+     */
+    public BoardStore(int width, int height, int capacity) {
+        if (width < 1 || width > Long.SIZE) {
+            throw new IllegalArgumentException("Board width must be between 1 and " + Long.SIZE + ": " + width);
+        }
+
+        this.width = width;
+        this.height = height;
+        this.bytesPerRow = (width + Byte.SIZE - 1) / Byte.SIZE;
+        this.bytesPerBoard = bytesPerRow * height;
+
+        if ((long) bytesPerBoard * capacity > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many boards for one store: " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.buffer = ByteBuffer.allocateDirect(bytesPerBoard * capacity).order(ByteOrder.LITTLE_ENDIAN);
+        this.scratchRows = new long[height];
+        this.size = 0;
+    }
+
+
+    /**
+     * Returns the number of boards in the store.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of boards the store can hold.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of bytes each stored board takes.
+     */
+    public int getBytesPerBoard() {
+        return bytesPerBoard;
+    }
+
+
+    /**
+     * Appends a copy of the given board and returns its index.
+     * The board should be in the committed state.
+     */
+    public int add(BitBoard board) {
+        if (size == capacity) throw new RuntimeException("Board store is full");
+
+        size++;
+        set(size - 1, board);
+        return size - 1;
+    }
+
+    /**
+     * Overwrites the board at the given index with a copy of the
+     * given board. The board should be in the committed state.
+     */
+    public void set(int index, BitBoard board) {
+        checkSize(board);
+        int base = offset(index);
+
+        for (int y = 0; y < height; y++) {
+            long mask = board.getRowMask(y);
+            int pos = base + y * bytesPerRow;
+
+            for (int i = 0; i < bytesPerRow; i++) {
+                buffer.put(pos + i, (byte) (mask >>> (i * Byte.SIZE)));
+            }
+        }
+    }
+
+    /**
+     * Returns a new BitBoard holding the board at the given index.
+     */
+    public BitBoard get(int index) {
+        return load(index, new BitBoard(width, height));
+    }
+
+    /**
+     * Loads the board at the given index into the given BitBoard, which
+     * must have the store's width and height, and returns it. Any
+     * previous contents and undo state of the view are discarded.
+     */
+    public BitBoard load(int index, BitBoard view) {
+        checkSize(view);
+        int base = offset(index);
+
+        for (int y = 0; y < height; y++) {
+            int pos = base + y * bytesPerRow;
+            long mask = 0;
+
+            for (int i = 0; i < bytesPerRow; i++) {
+                mask |= (buffer.get(pos + i) & 0xFFL) << (i * Byte.SIZE);
+            }
+
+            scratchRows[y] = mask;
+        }
+
+        view.loadRows(scratchRows);
+        return view;
+    }
+
+
+    private int offset(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Board index " + index + " out of " + size);
+        }
+
+        return index * bytesPerBoard;
+    }
+
+    private void checkSize(Board board) {
+        if (board.getWidth() != width || board.getHeight() != height) {
+            throw new IllegalArgumentException("Board is " + board.getWidth() + "x" + board.getHeight()
+                    + ", store holds " + width + "x" + height);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+
+public class BoardStoreTest extends TestCase {
+    static final int HEIGHT = 12;
+
+    // widths a row does not fill whole bytes of, and the widest boards
+    static final int[] WIDTHS = {1, 3, 8, 10, 13, 63, 64};
+
+    // Check that every stored board comes back exactly as it was added
+    public void testRoundTrip() {
+        for (final int width : WIDTHS) {
+            BitBoard[] boards = new BitBoard[20];
+            BoardStore store = new BoardStore(width, HEIGHT, boards.length);
+            Random random = new Random(width);
+
+            for (int i = 0; i < boards.length; i++) {
+                boards[i] = randomBoard(width, random);
+                assertEquals(i, store.add(boards[i]));
+            }
+
+            assertEquals(boards.length, store.size());
+            assertEquals((width + 7) / 8 * HEIGHT, store.getBytesPerBoard());
+
+            for (int i = 0; i < boards.length; i++) {
+                assertSameBoard(boards[i], store.get(i));
+            }
+        }
+    }
+
+    // Check that one view loads every board exactly, whatever it held
+    // before, and that set() writes a changed view back
+    public void testReusedView() {
+        for (final int width : WIDTHS) {
+            BitBoard[] boards = new BitBoard[20];
+            BoardStore store = new BoardStore(width, HEIGHT, boards.length);
+            Random random = new Random(width);
+
+            for (int i = 0; i < boards.length; i++) {
+                boards[i] = randomBoard(width, random);
+                store.add(boards[i]);
+            }
+
+            BitBoard view = new BitBoard(width, HEIGHT);
+            for (int i = 0; i < boards.length; i++) {
+                // leave uncommitted changes and an open checkpoint behind
+                view.checkpoint();
+                view.place(new Piece("0 0"), 0, view.dropHeight(new Piece("0 0"), 0));
+
+                assertSame(view, store.load(i, view));
+                assertSameBoard(boards[i], view);
+                assertEquals(0, view.getCheckpointDepth());
+
+                // the load is committed: undo keeps it
+                view.undo();
+                assertSameBoard(boards[i], view);
+            }
+
+            // change a board through the view and store it back
+            store.load(3, view);
+            Piece stick = new Piece(Piece.STICK_STR);
+            int y = view.dropHeight(stick, 0);
+            if (y + stick.getHeight() <= HEIGHT) {
+                view.place(stick, 0, y);
+                view.commit();
+            }
+            store.set(3, view);
+
+            assertSameBoard(view, store.get(3));
+            assertSameBoard(boards[2], store.get(2));
+            assertSameBoard(boards[4], store.get(4));
+        }
+    }
+
+    // Check the bounds of the store
+    public void testBounds() {
+        BoardStore store = new BoardStore(10, HEIGHT, 1);
+        store.add(new BitBoard(10, HEIGHT));
+
+        try {
+            store.add(new BitBoard(10, HEIGHT));
+            fail();
+        } catch (RuntimeException expected) {
+        }
+
+        try {
+            store.get(1);
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+        }
+
+        try {
+            store.load(0, new BitBoard(9, HEIGHT));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /*
+     A board with random drops on it, some rows full and left uncleared,
+     and the top rows filled in places.
+    */
+    private BitBoard randomBoard(int width, Random random) {
+        BitBoard board = new BitBoard(width, HEIGHT);
+        Piece[] pieces = Piece.getPieces();
+
+        for (int i = 0; i < width * 2; i++) {
+            Piece piece = pieces[random.nextInt(pieces.length)];
+            if (piece.getWidth() > width) continue;
+
+            int x = random.nextInt(width - piece.getWidth() + 1);
+            int y = board.dropHeight(piece, x);
+            if (y + piece.getHeight() > HEIGHT) continue;
+
+            board.place(piece, x, y);
+            if (random.nextBoolean()) board.clearRows();
+            board.commit();
+        }
+
+        return board;
+    }
+
+    private void assertSameBoard(Board expected, Board actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        assertEquals(expected.getMaxHeight(), actual.getMaxHeight());
+        assertEquals(expected.getHash(), actual.getHash());
+
+        for (int y = 0; y < expected.getHeight(); y++) {
+            assertEquals(expected.getRowWidth(y), actual.getRowWidth(y));
+
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getGrid(x, y), actual.getGrid(x, y));
+            }
+        }
+
+        for (int x = 0; x < expected.getWidth(); x++) {
+            assertEquals(expected.getColumnHeight(x), actual.getColumnHeight(x));
+        }
+    }
+}
@@ -1,5 +1,8 @@
+import com.sun.management.ThreadMXBean;
 import junit.framework.TestCase;
 
+import java.lang.management.ManagementFactory;
+
 
 public class BoardTest extends TestCase {
     Board b;
@@ -13,7 +16,7 @@ public class BoardTest extends TestCase {
     // ready to be used by tests.
 
     protected void setUp() throws Exception {
-        b = new Board(3, 6);
+        b = Board.create(3, 6);
 
         pyr1 = new Piece(Piece.PYRAMID_STR);
         pyr2 = pyr1.computeNextRotation();
@@ -161,4 +164,459 @@ public class BoardTest extends TestCase {
         assertEquals(3, b.getColumnHeight(2));
         assertEquals(3, b.getMaxHeight());
     }
+
+
+    // Check that checkPlace() gives what place() would, and changes
+    // nothing, whether the board is committed or not
+    public void testCheckPlace() {
+        for (final String implementation : Board.implementations()) {
+            Board board = Board.create(implementation, 3, 6);
+            board.place(pyr1, 0, 0);
+            board.commit();
+            checkPlaceEverywhere(board);
+
+            // uncommitted: a later undo must still take the piece off
+            board.place(sRotated, 1, 1);
+            checkPlaceEverywhere(board);
+            board.undo();
+            assertEquals(2, board.getMaxHeight());
+            assertEquals(1, board.getRowWidth(1));
+        }
+    }
+
+    // Check moves that do not fit leave the piece where it was
+    public void testMoveOutOfBoundsOrOntoBlocks() {
+        for (final String implementation : Board.implementations()) {
+            Board board = Board.create(implementation, 3, 6);
+            board.place(pyr1, 0, 0);
+            board.commit();
+
+            assertEquals(Board.PLACE_OK, board.place(stick, 2, 1));
+            long hash = board.getHash();
+
+            assertEquals(Board.PLACE_OUT_BOUNDS, board.move(stick, 2, 1, stick, 2, 3));
+            assertEquals(Board.PLACE_OUT_BOUNDS, board.move(stick, 2, 1, stick, 3, 1));
+            assertEquals(Board.PLACE_OUT_BOUNDS, board.move(stick, 2, 1, stickRotated, 0, 1));
+            assertEquals(Board.PLACE_BAD, board.move(stick, 2, 1, stick, 1, 1));
+            assertEquals(Board.PLACE_BAD, board.move(stick, 2, 1, stick, 2, 0));
+
+            assertEquals(hash, board.getHash());
+            assertEquals(5, board.getColumnHeight(2));
+            assertEquals(2, board.getRowWidth(1));
+            assertEquals(1, board.getRowWidth(4));
+            assertFalse(board.getGrid(2, 5));
+
+            // and the place itself can still be undone
+            board.undo();
+            assertEquals(1, board.getColumnHeight(2));
+            assertEquals(2, board.getMaxHeight());
+        }
+    }
+
+    // Check a move to the next rotation at the same x, y against
+    // placing the rotated piece there directly
+    public void testMoveRotateInPlace() {
+        for (final String implementation : Board.implementations()) {
+            for (final Piece root : Piece.getPieces()) {
+                Piece current = root;
+                do {
+                    Piece next = current.fastRotation();
+
+                    Board board = Board.create(implementation, 6, 8);
+                    board.place(pyr1, 0, 0);
+                    board.commit();
+                    board.place(current, 1, 2);
+
+                    Board expected = Board.create(implementation, 6, 8);
+                    expected.place(pyr1, 0, 0);
+                    expected.commit();
+                    expected.place(next, 1, 2);
+
+                    assertEquals(Board.PLACE_OK, board.move(current, 1, 2, next, 1, 2));
+                    assertEquals(expected.getHash(), board.getHash());
+                    assertEquals(expected.getMaxHeight(), board.getMaxHeight());
+                    for (int x = 0; x < board.getWidth(); x++) {
+                        assertEquals(expected.getColumnHeight(x), board.getColumnHeight(x));
+                    }
+                    for (int y = 0; y < board.getHeight(); y++) {
+                        assertEquals(expected.getRowWidth(y), board.getRowWidth(y));
+                    }
+
+                    board.undo();
+                    assertEquals(2, board.getMaxHeight());
+                    assertEquals(4, board.getRowWidth(0) + board.getRowWidth(1));
+
+                    current = next;
+                } while (current != root);
+            }
+        }
+    }
+
+    // Check a move down that completes a row
+    public void testMoveFillsRow() {
+        Piece block = new Piece("0 0");
+
+        for (final String implementation : Board.implementations()) {
+            Board board = Board.create(implementation, 4, 6);
+            for (int x = 0; x < 3; x++) {
+                board.place(block, x, 0);
+                board.commit();
+            }
+
+            assertEquals(Board.PLACE_OK, board.place(stick, 3, 1));
+            assertEquals(Board.PLACE_ROW_FILLED, board.move(stick, 3, 1, stick, 3, 0));
+            assertEquals(4, board.getRowWidth(0));
+            assertEquals(4, board.getColumnHeight(3));
+
+            // and back up, so no row is full
+            assertEquals(Board.PLACE_OK, board.move(stick, 3, 0, stick, 3, 1));
+            assertEquals(3, board.getRowWidth(0));
+            assertEquals(0, board.clearRows());
+
+            assertEquals(Board.PLACE_ROW_FILLED, board.move(stick, 3, 1, stick, 3, 0));
+            assertEquals(1, board.clearRows());
+            assertEquals(3, board.getMaxHeight());
+            assertEquals(0, board.getColumnHeight(0));
+
+            board.undo();
+            assertEquals(1, board.getMaxHeight());
+            assertEquals(3, board.getRowWidth(0));
+            assertEquals(0, board.getColumnHeight(3));
+        }
+    }
+
+    // Check nested checkpoints rolled back one level and several levels at a time
+    public void testCheckpoints() {
+        b.commit();
+        int outer = b.checkpoint();
+        assertEquals(0, outer);
+
+        int result = b.place(sRotated, 1, 1);
+        assertEquals(Board.PLACE_OK, result);
+        b.commit();
+
+        int inner = b.checkpoint();
+        assertEquals(1, inner);
+        assertEquals(2, b.getCheckpointDepth());
+
+        result = b.place(stick, 0, 1);
+        assertEquals(Board.PLACE_ROW_FILLED, result);
+        assertEquals(3, b.clearRows());
+        b.commit();
+
+        result = b.place(square, 1, 1);
+        assertEquals(Board.PLACE_ROW_FILLED, result);
+        assertEquals(3, b.getMaxHeight());
+
+        // back to the state right after sRotated was placed
+        b.rollback();
+        assertEquals(1, b.getCheckpointDepth());
+        assertEquals(1, b.getColumnHeight(0));
+        assertEquals(4, b.getColumnHeight(1));
+        assertEquals(3, b.getColumnHeight(2));
+        assertEquals(4, b.getMaxHeight());
+        assertEquals(2, b.getRowWidth(1));
+
+        b.place(stick, 0, 1);
+        b.clearRows();
+        b.commit();
+        b.checkpoint();
+        b.place(square, 1, 1);
+        b.commit();
+
+        // straight back to the state after the setUp() placement
+        b.rollbackTo(outer);
+        assertEquals(0, b.getCheckpointDepth());
+        assertEquals(1, b.getColumnHeight(0));
+        assertEquals(2, b.getColumnHeight(1));
+        assertEquals(1, b.getColumnHeight(2));
+        assertEquals(2, b.getMaxHeight());
+        assertEquals(3, b.getRowWidth(0));
+        assertEquals(1, b.getRowWidth(1));
+        assertFalse(b.getGrid(0, 1));
+    }
+
+
+    // Check the batch enumeration against placing every candidate for real
+    public void testEnumeratePlacements() {
+        b.commit();
+        b.place(sRotated, 1, 1);
+        b.commit();
+
+        for (final Piece root : Piece.getPieces()) {
+            int capacity = b.countPlacements(root);
+            int[] rotations = new int[capacity];
+            int[] xs = new int[capacity];
+            int[] ys = new int[capacity];
+            int[] cleared = new int[capacity];
+            int[] heights = new int[capacity * b.getWidth()];
+
+            int count = b.enumeratePlacements(root, b.getHeight(), rotations, xs, ys, cleared, heights);
+
+            int expected = 0;
+            Piece current = root;
+            for (int rotation = 0; ; rotation++) {
+                for (int x = 0; x <= b.getWidth() - current.getWidth(); x++) {
+                    int y = b.dropHeight(current, x);
+                    if (b.place(current, x, y) <= Board.PLACE_ROW_FILLED) {
+                        assertEquals(rotation, rotations[expected]);
+                        assertEquals(x, xs[expected]);
+                        assertEquals(y, ys[expected]);
+                        assertEquals(b.clearRows(), cleared[expected]);
+                        for (int col = 0; col < b.getWidth(); col++) {
+                            assertEquals(b.getColumnHeight(col), heights[expected * b.getWidth() + col]);
+                        }
+                        expected++;
+                    }
+                    b.undo();
+                }
+
+                current = current.fastRotation();
+                if (current == root) break;
+            }
+
+            assertEquals(expected, count);
+        }
+    }
+
+
+    // Check garbage rows pushing the stack up, undo, and digging out
+    public void testInsertGarbage() {
+        b.commit();
+        assertEquals(Board.PLACE_OUT_BOUNDS, b.insertGarbage(5, 0));
+        assertEquals(2, b.getMaxHeight());
+
+        assertEquals(Board.PLACE_OK, b.insertGarbage(2, 1));
+        assertEquals(3, b.getColumnHeight(0));
+        assertEquals(4, b.getColumnHeight(1));
+        assertEquals(3, b.getColumnHeight(2));
+        assertEquals(4, b.getMaxHeight());
+        assertEquals(2, b.getRowWidth(0));
+        assertFalse(b.getGrid(1, 1));
+        assertEquals(3, b.getRowWidth(2));
+
+        b.undo();
+        assertEquals(2, b.getMaxHeight());
+        assertEquals(3, b.getRowWidth(0));
+
+        b.insertGarbage(2, 1);
+        b.commit();
+
+        // fills the bottom garbage row; the pyramid row above is full too
+        Piece block = new Piece("0 0");
+        assertEquals(Board.PLACE_ROW_FILLED, b.place(block, 1, 0));
+        assertEquals(2, b.clearRows());
+        assertEquals(1, b.getColumnHeight(0));
+        assertEquals(2, b.getColumnHeight(1));
+        assertEquals(1, b.getColumnHeight(2));
+        assertFalse(b.getGrid(1, 0));
+        assertTrue(b.getGrid(1, 1));
+
+        Board same = Board.create(3, 6);
+        same.insertGarbage(1, 1);
+        same.commit();
+        same.place(block, 1, 1);
+        assertEquals(same.getHash(), b.getHash());
+    }
+
+
+    // Check that a copy has the same blocks, is committed and
+    // is independent of the original
+    public void testCopy() {
+        for (final String implementation : Board.implementations()) {
+            Board board = Board.create(implementation, 3, 6);
+            board.place(pyr1, 0, 0);
+            board.commit();
+            board.checkpoint();
+            board.place(stick, 2, 1);
+
+            Board copy = board.copy();
+            assertEquals(0, copy.getCheckpointDepth());
+            assertEquals(board.getHash(), copy.getHash());
+            assertEquals(5, copy.getMaxHeight());
+            assertEquals(5, copy.getColumnHeight(2));
+            assertEquals(2, copy.getRowWidth(1));
+
+            // committed: undo keeps the stick, and a new place works
+            copy.undo();
+            assertEquals(5, copy.getMaxHeight());
+            assertEquals(Board.PLACE_ROW_FILLED, copy.place(stick, 0, 1));
+
+            board.rollback();
+            assertEquals(2, board.getMaxHeight());
+            assertEquals(5, copy.getColumnHeight(2));
+        }
+    }
+
+
+    // Check the evaluation features, tracked or not, through place and undo
+    public void testFeatures() {
+        for (final String implementation : Board.implementations()) {
+            for (final boolean tracking : new boolean[] {false, true}) {
+                Board board = Board.create(implementation, 3, 6);
+                board.setFeatureTracking(tracking);
+
+                // .+.
+                // +++
+                board.place(pyr1, 0, 0);
+                board.commit();
+                assertEquals(0, board.getHoles());
+                assertEquals(4, board.getAggregateHeight());
+                assertEquals(2, board.getBumpiness());
+                assertEquals(4, board.getRowTransitions());
+                assertEquals(3, board.getColumnTransitions());
+                assertEquals(1, board.getWellDepth(0));
+                assertEquals(2, board.getWellDepths());
+
+                // .++
+                // .+.
+                // +++
+                board.place(new Piece("0 0  1 0"), 1, 2);
+                assertEquals(1, board.getHoles());
+                assertEquals(7, board.getAggregateHeight());
+                assertEquals(2, board.getBumpiness());
+                assertEquals(6, board.getRowTransitions());
+                assertEquals(5, board.getColumnTransitions());
+                assertEquals(2, board.getWellDepths());
+
+                board.undo();
+                assertEquals(0, board.getHoles());
+                assertEquals(4, board.getAggregateHeight());
+                assertEquals(4, board.getRowTransitions());
+                assertEquals(3, board.getColumnTransitions());
+            }
+        }
+    }
+
+
+    // Check the dirty rows cover what place, undo and clearRows change
+    public void testDirtyRows() {
+        b.resetDirtyRows();
+        assertTrue(b.getDirtyRowStart() >= b.getDirtyRowEnd());
+
+        b.commit();
+        b.place(sRotated, 1, 1);
+        assertTrue(b.getDirtyRowStart() <= 1 && b.getDirtyRowEnd() >= 4);
+
+        b.resetDirtyRows();
+        b.undo();
+        assertTrue(b.getDirtyRowStart() <= 1 && b.getDirtyRowEnd() >= 4);
+
+        b.resetDirtyRows();
+        b.place(L3, 0, 1);
+        b.clearRows();
+        assertTrue(b.getDirtyRowStart() <= 0 && b.getDirtyRowEnd() >= 3);
+    }
+
+
+    // Check that the place/clearRows/undo loop of the brain does not
+    // allocate once the undo journal has grown to its working size
+    public void testPlaceDoesNotAllocate() {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return;
+        }
+
+        Board board = Board.create(10, 24);
+        Piece[] pieces = Piece.getPieces();
+
+        // two rows with a hole in each, so some placements fill rows
+        Piece block = new Piece("0 0");
+        for (int x = 0; x < board.getWidth(); x++) {
+            for (int y = 0; y < 2; y++) {
+                if (x != 3 + y) {
+                    board.place(block, x, y);
+                    board.commit();
+                }
+            }
+        }
+
+        playEverywhere(board, pieces);
+
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < 1000; i++) {
+            playEverywhere(board, pieces);
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        // ~160,000 placements -- allow a few KB of one-off JVM warm-up
+        // noise, far below even one TPoint per placement
+        assertTrue("place allocated " + allocated + " bytes", allocated < 16 * 1024);
+    }
+
+    // Check that a very tall board only pays for the rows in use,
+    // and still reads as empty above them
+    public void testTallBoard() {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        boolean measure = threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled();
+        long before = measure ? threads.getCurrentThreadAllocatedBytes() : 0;
+
+        Board tall = Board.create(Board.DEFAULT_IMPLEMENTATION, 10, 10_000_000);
+        for (int y = 0; y < 100; y += 4) {
+            tall.place(stick, 0, y);
+            tall.commit();
+        }
+        tall.place(L, 1, 0);
+        tall.commit();
+
+        assertEquals(100, tall.getColumnHeight(0));
+        assertEquals(3, tall.getColumnHeight(1));
+        assertEquals(100, tall.getMaxHeight());
+        assertEquals(Board.PLACE_OK, tall.checkPlace(stick, 5, 9_999_996));
+        assertFalse(tall.getGrid(5, 9_999_999));
+        assertTrue(tall.getGrid(5, 10_000_000));
+        assertEquals(0, tall.getRowWidth(9_999_999));
+        assertEquals(100, tall.dropHeight(square, 0));
+
+        if (measure) {
+            long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+            assertTrue("tall board allocated " + allocated + " bytes", allocated < 64 * 1024);
+        }
+    }
+
+    /*
+     Checks every piece at every position around the board with
+     checkPlace(), against place() and undo() on a copy, and that the
+     board itself does not change.
+    */
+    private void checkPlaceEverywhere(Board board) {
+        Board copy = board.copy();
+        long hash = board.getHash();
+        int maxHeight = board.getMaxHeight();
+
+        for (final Piece root : Piece.getPieces()) {
+            Piece current = root;
+            do {
+                for (int x = -1; x <= board.getWidth(); x++) {
+                    for (int y = -1; y <= board.getHeight(); y++) {
+                        int result = board.checkPlace(current, x, y);
+
+                        assertEquals(copy.place(current, x, y), result);
+                        copy.undo();
+
+                        assertEquals(hash, board.getHash());
+                        assertEquals(maxHeight, board.getMaxHeight());
+                        for (int row = 0; row < board.getHeight(); row++) {
+                            assertEquals(copy.getRowWidth(row), board.getRowWidth(row));
+                        }
+                    }
+                }
+                current = current.fastRotation();
+            } while (current != root);
+        }
+    }
+
+    private void playEverywhere(Board board, Piece[] pieces) {
+        for (final Piece root : pieces) {
+            Piece current = root;
+            do {
+                for (int x = 0; x <= board.getWidth() - current.getWidth(); x++) {
+                    int result = board.place(current, x, board.dropHeight(current, x));
+                    if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+                    board.undo();
+                }
+                current = current.fastRotation();
+            } while (current != root);
+        }
+    }
 }
@@ -0,0 +1,139 @@
+// BrainBenchmark.java
+
+import java.util.Random;
+
+/**
+ * Headless benchmark for the brains: plays whole games with no
+ * display, dropping each piece where the brain says, and prints the
+ * lines cleared and pieces played per game, and the time taken per
+ * decision.
+ * <p>
+ * Pieces are drawn uniformly from the standard set with a fixed seed
+ * per game, so every brain plays the same sequences, and the next
+ * PREVIEW pieces are known in advance, as they would be in a game
+ * with a preview. Brains that look ahead, like BeamSearchBrain, are
+ * given the preview and the same time budget per decision.
+ * ExpectimaxBrain does not see the preview and searches to a fixed
+ * depth, 2 for whole games. Its transposition table only gets hits
+ * from depth 3, where two plays of the same piece can be made in
+ * either order, so the table is measured apart: the first
+ * TABLE_PIECES moves of a game at depth 3, with the table and with a
+ * single entry, which plays the same moves rating every board. The
+ * "features" brain is DefaultBrain rating from the board's tracked
+ * evaluation features, and must play exactly as "default" does.
+ * <p>
+ * Games stop when the brain cannot play, or after MAX_PIECES pieces.
+ * The limit height leaves room above it for pieces to enter, as in
+ * JTetris.
+ * <p>
+ * Run with: java BrainBenchmark [games [budget in ms]]
+ */
+public class BrainBenchmark {
+    private static final int WIDTH = 10;
+    private static final int HEIGHT = 24;
+    private static final int LIMIT_HEIGHT = 20;
+    private static final int PREVIEW = 2;
+    private static final int MAX_PIECES = 5_000;
+    private static final int GAMES = 10;
+    private static final double BUDGET_MILLIS = 2.0;
+    private static final int TABLE_DEPTH = 3;
+    private static final int TABLE_PIECES = 40;
+    private static final int TABLE_CAPACITY = 1 << 20;
+
+    public static void main(String[] args) {
+        final int games = args.length > 0 ? Integer.parseInt(args[0]) : GAMES;
+        final double budgetMillis = args.length > 1 ? Double.parseDouble(args[1]) : BUDGET_MILLIS;
+        final long budget = (long) (budgetMillis * 1_000_000);
+
+        System.out.printf("%d games on %dx%d, preview %d, budget %.1f ms/decision, at most %d pieces%n",
+                games, WIDTH, HEIGHT, PREVIEW, budgetMillis, MAX_PIECES);
+
+        run("default", new DefaultBrain(), games);
+
+        DefaultBrain features = new DefaultBrain();
+        features.setUseBoardFeatures(true);
+        run("features", features, games);
+
+        BeamSearchBrain beam = new BeamSearchBrain(new DefaultBrain(), 8, PREVIEW + 1);
+        beam.setTimeBudget(budget);
+        run("beam 8x" + (PREVIEW + 1), beam, games);
+
+        ExpectimaxBrain expectimax = new ExpectimaxBrain(new DefaultBrain(), PieceSet.standard(), 2, 1 << 16);
+        run("expect 2", expectimax, games);
+        System.out.printf("  %-10s %8.0f nodes/s%n", "", expectimax.getNodesPerSecond());
+
+        System.out.printf("Expectimax at depth %d, first %d pieces%n", TABLE_DEPTH, TABLE_PIECES);
+
+        for (final int capacity : new int[] {TABLE_CAPACITY, 1}) {
+            ExpectimaxBrain brain = new ExpectimaxBrain(new DefaultBrain(), PieceSet.standard(), TABLE_DEPTH, capacity);
+            play(brain, 0, TABLE_PIECES);
+
+            System.out.printf("  %7d-entry table: %10d boards rated, %7.1f ms/decision, table hit rate %.1f%%%n",
+                    brain.getTable().getCapacity(), brain.getNodes(), brain.getNanos() / 1e6 / TABLE_PIECES,
+                    100 * brain.getTable().getHitRate());
+        }
+    }
+
+    private static void run(String name, Brain brain, int games) {
+        long lines = 0;
+        long pieces = 0;
+        long elapsed = 0;
+        int toppedOut = 0;
+
+        for (int game = 0; game < games; game++) {
+            long start = System.nanoTime();
+            int[] result = play(brain, game, MAX_PIECES);
+            elapsed += System.nanoTime() - start;
+
+            lines += result[0];
+            pieces += result[1];
+            if (result[1] < MAX_PIECES) toppedOut++;
+        }
+
+        System.out.printf("  %-10s %8.1f lines/game, %8.1f pieces/game, %2d topped out, %7.1f us/decision%n",
+                name, (double) lines / games, (double) pieces / games, toppedOut, elapsed / 1000.0 / pieces);
+    }
+
+    /*
+     Plays one game of at most maxPieces pieces, and returns the lines
+     cleared and pieces played.
+    */
+    private static int[] play(Brain brain, long seed, int maxPieces) {
+        Random random = new Random(seed);
+        Piece[] set = Piece.getPieces();
+        Board board = Board.create(WIDTH, HEIGHT);
+        if (brain instanceof DefaultBrain && ((DefaultBrain) brain).isUsingBoardFeatures()) {
+            board.setFeatureTracking(true);
+        }
+
+        // the current piece, then the preview
+        Piece[] queue = new Piece[PREVIEW + 1];
+        for (int i = 0; i < queue.length; i++) {
+            queue[i] = set[random.nextInt(set.length)];
+        }
+
+        Brain.Move move = new Brain.Move();
+        int lines = 0;
+        int pieces = 0;
+
+        while (pieces < maxPieces) {
+            if (brain instanceof BeamSearchBrain) {
+                Piece[] preview = new Piece[PREVIEW];
+                System.arraycopy(queue, 1, preview, 0, PREVIEW);
+                ((BeamSearchBrain) brain).setPreview(preview);
+            }
+
+            if (brain.bestMove(board, queue[0], LIMIT_HEIGHT, move) == null) break;
+
+            board.place(move.piece, move.x, move.y);
+            lines += board.clearRows();
+            board.commit();
+            pieces++;
+
+            System.arraycopy(queue, 1, queue, 0, PREVIEW);
+            queue[PREVIEW] = set[random.nextInt(set.length)];
+        }
+
+        return new int[] {lines, pieces};
+    }
+}
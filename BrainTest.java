@@ -0,0 +1,184 @@
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+
+public class BrainTest extends TestCase {
+    Piece square;
+
+    protected void setUp() throws Exception {
+        square = Piece.getPieces()[Piece.SQUARE];
+    }
+
+    // A piece that fits must be played even if nothing can follow it
+    public void testExpectimaxPlaysWhenEveryContinuationTopsOut() {
+        Board board = Board.create(3, 6);
+
+        assertNotNull(new DefaultBrain().bestMove(board, square, 2, null));
+
+        ExpectimaxBrain brain = new ExpectimaxBrain(new DefaultBrain(), PieceSet.standard(), 2, 64);
+        Brain.Move move = brain.bestMove(board, square, 2, null);
+        assertNotNull(move);
+        assertEquals(0, move.y);
+        assertEquals(ExpectimaxBrain.TOP_OUT_SCORE, move.score, 0);
+    }
+
+    // The transposition table must not change the moves or their scores
+    public void testExpectimaxTableGivesTheSameMoves() {
+        Board cached = Board.create(6, 12);
+        Board uncached = Board.create(6, 12);
+        ExpectimaxBrain table = new ExpectimaxBrain(new DefaultBrain(), PieceSet.standard(), 3, 1 << 16);
+        ExpectimaxBrain none = new ExpectimaxBrain(new DefaultBrain(), PieceSet.standard(), 3, 1);
+
+        Piece[] pieces = Piece.getPieces();
+        Random random = new Random(1);
+        for (int i = 0; i < 6; i++) {
+            Piece piece = pieces[random.nextInt(pieces.length)];
+            Brain.Move expected = none.bestMove(uncached, piece, 10, null);
+            Brain.Move move = table.bestMove(cached, piece, 10, null);
+            assertNotNull(expected);
+            assertNotNull(move);
+
+            assertSame(expected.piece, move.piece);
+            assertEquals(expected.x, move.x);
+            assertEquals(expected.y, move.y);
+            assertEquals(expected.score, move.score, 0);
+
+            // the same position again comes from the table
+            long hits = table.getTable().getHits();
+            move = table.bestMove(cached, piece, 10, null);
+            assertTrue(table.getTable().getHits() > hits);
+            assertEquals(expected.score, move.score, 0);
+
+            for (final Board board : new Board[] {cached, uncached}) {
+                board.place(move.piece, move.x, move.y);
+                board.clearRows();
+                board.commit();
+            }
+        }
+
+        assertTrue(table.getTable().getHits() > 0);
+        assertTrue(table.getNodes() < none.getNodes());
+    }
+
+    // Caching the scores must not change the moves or their scores
+    public void testCachingBrainGivesTheSameMoves() {
+        DefaultBrain plain = new DefaultBrain();
+        CachingBrain caching = new CachingBrain(new DefaultBrain(), 1 << 10);
+        Random random = new Random(1);
+
+        for (int i = 0; i < 20; i++) {
+            Board board = randomBoard(random, 10, 24, false);
+
+            for (final Piece piece : Piece.getPieces()) {
+                assertSameMove(plain.bestMove(board, piece, 20, null), caching.bestMove(board, piece, 20, null));
+            }
+        }
+    }
+
+    // Scoring a position again must come from the cache
+    public void testCachingBrainHitsOnARepeatedPosition() {
+        CachingBrain brain = new CachingBrain(new DefaultBrain(), 1 << 10);
+        Board board = randomBoard(new Random(2), 10, 24, false);
+
+        Brain.Move first = brain.bestMove(board, square, 20, null);
+        EvaluationCache cache = brain.getCache();
+        assertEquals(0, cache.getHits());
+        long misses = cache.getMisses();
+
+        Brain.Move again = brain.bestMove(board, square, 20, null);
+        assertEquals(misses, cache.getMisses());
+        assertEquals(misses, cache.getHits());
+        assertSameMove(first, again);
+    }
+
+    // A hash stored in an occupied slot evicts the entry there, which
+    // must then miss rather than give the new score
+    public void testEvaluationCacheEvictsOnCollision() {
+        EvaluationCache cache = new EvaluationCache(4);
+        assertEquals(4, cache.getCapacity());
+
+        // the same slot
+        cache.put(1, 10.0);
+        cache.put(5, 20.0);
+        assertEquals(1, cache.getEvictions());
+
+        assertFalse(cache.contains(1));
+        assertTrue(cache.contains(5));
+        assertEquals(20.0, cache.get(5), 0);
+
+        cache.put(1, 10.0);
+        assertTrue(cache.contains(1));
+        assertEquals(10.0, cache.get(1), 0);
+        assertFalse(cache.contains(5));
+
+        // through a brain with a one-entry cache, so every board collides
+        DefaultBrain plain = new DefaultBrain();
+        CachingBrain brain = new CachingBrain(new DefaultBrain(), 1);
+        Random random = new Random(3);
+        Board[] boards = new Board[8];
+        for (int i = 0; i < boards.length; i++) {
+            boards[i] = randomBoard(random, 10, 24, false);
+        }
+
+        for (int i = 0; i < 3 * boards.length; i++) {
+            Board board = boards[(i * 5) % boards.length];
+            assertEquals(plain.rateBoard(board), brain.rateBoard(board), 0);
+        }
+        assertTrue(brain.getCache().getEvictions() > 0);
+    }
+
+    // Scoring the plays in one batch must give the move and score of
+    // the play-by-play search, also on boards with full rows left on them
+    public void testBatchBestMoveMatchesSerial() {
+        DefaultBrain serial = new DefaultBrain();
+        DefaultBrain batch = new DefaultBrain();
+        batch.setEvaluator(BoardEvaluator.create("scalar"));
+        Random random = new Random(4);
+
+        for (int i = 0; i < 200; i++) {
+            Board board = randomBoard(random, 4 + random.nextInt(12), 24, i % 2 == 0);
+            int limitHeight = 4 + random.nextInt(20);
+
+            for (final Piece piece : Piece.getPieces()) {
+                assertSameMove(serial.bestMove(board, piece, limitHeight, null),
+                        batch.bestMove(board, piece, limitHeight, null));
+            }
+        }
+    }
+
+    private void assertSameMove(Brain.Move expected, Brain.Move actual) {
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+
+        assertNotNull(actual);
+        assertSame(expected.piece, actual.piece);
+        assertEquals(expected.x, actual.x);
+        assertEquals(expected.y, actual.y);
+        assertEquals(expected.score, actual.score, 0);
+    }
+
+    /*
+     A board with rubble at the bottom from random drops. Full rows are
+     cleared, unless keepFullRows, when they are left on the board.
+    */
+    private Board randomBoard(Random random, int width, int height, boolean keepFullRows) {
+        Board board = Board.create(width, height);
+        Piece[] pieces = Piece.getPieces();
+
+        for (int i = 0; i < width * 2; i++) {
+            Piece piece = pieces[random.nextInt(pieces.length)];
+            int x = random.nextInt(width - piece.getWidth() + 1);
+            int y = board.dropHeight(piece, x);
+            if (y + piece.getHeight() > height / 2) continue;
+
+            board.place(piece, x, y);
+            if (!keepFullRows) board.clearRows();
+            board.commit();
+        }
+
+        return board;
+    }
+}
@@ -0,0 +1,46 @@
+// CachingBrain.java
+
+/**
+ * A Brain that memoizes the board scores of another brain.
+ * bestMove() is the usual DefaultBrain search, but every rateBoard()
+ * call first looks the board up by its hash in an
+ * EvaluationCache and only asks the wrapped brain on a miss.
+ * Positions that come up again -- across candidate moves, adversary
+ * probes or lookahead -- are then scored once.
+ * <p>
+ * Works with any DefaultBrain subclass, since that is where the
+ * rateBoard() extension point lives.
+ */
+public class CachingBrain extends DefaultBrain {
+    private final DefaultBrain scorer;
+    private final EvaluationCache cache;
+
+    /**
+     * Creates a brain that caches up to about capacity scores
+     * from the given brain.
+     */
+    public CachingBrain(DefaultBrain scorer, int capacity) {
+        this.scorer = scorer;
+        this.cache = new EvaluationCache(capacity);
+    }
+
+    @Override
+    public double rateBoard(Board board) {
+        final long hash = board.getHash();
+
+        if (cache.contains(hash)) {
+            return cache.get(hash);
+        }
+
+        double score = scorer.rateBoard(board);
+        cache.put(hash, score);
+        return score;
+    }
+
+    /**
+     * Returns the cache, e.g. to read its hit rate.
+     */
+    public EvaluationCache getCache() {
+        return cache;
+    }
+}
@@ -1,5 +1,12 @@
 // DefaultBrain.java
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
 /**
  Provided code.
  A simple Brain implementation.
@@ -12,9 +19,84 @@
  play with the lowest score. Undo() is used to back-out
  each play before trying the next. To experiment with writing your own
  brain -- just subclass off DefaultBrain and override rateBoard().
+ Works with the pieces of any PieceSet, since it only walks the
+ rotations with fastRotation().
+
+ Given a ForkJoinPool, bestMove() splits the plays across it when
+ there are enough of them, each task on its own copy of the board,
+ and returns the same move the serial search would.
+
+ With setUseBoardFeatures(true), rateBoard() reads the holes and the
+ aggregate height from the board's evaluation features instead of
+ walking the grid -- the same scores, for O(1) on a board that
+ tracks them (see Board.setFeatureTracking()).
+
+ Given a BoardEvaluator, bestMove() instead lists every play at once
+ with Board.enumeratePlacements() and scores them in one batch, from
+ the column heights they leave, again with the same scores and so the
+ same move. rateBoard() is then not called, so this is for the scores
+ of this class only, not those of subclasses that override it. On a
+ board that still holds full rows from before the play, which the
+ loop only clears along with a row the play fills, bestMove() falls
+ back to rating play by play.
 */
 
 public class DefaultBrain implements Brain {
+    /**
+     * Below this many (rotation, x) plays bestMove() stays serial,
+     * even with a pool: splitting would cost more than it saves.
+     */
+    public static final int PARALLEL_THRESHOLD = 128;
+
+    // The fewest plays worth a task of their own
+    private static final int MIN_TASK_PLAYS = 16;
+
+    private final ForkJoinPool pool;    // null for a serial brain
+    private boolean useBoardFeatures;
+    private BoardEvaluator evaluator;    // null to rate play by play
+
+    /**
+     * Creates a brain that searches serially.
+     */
+    public DefaultBrain() {
+        this(null);
+    }
+
+    /**
+     * Creates a brain that splits bestMove() across the given pool,
+     * or a serial one if the pool is null. Each task rates the boards
+     * of its plays on its own copy of the board, so rateBoard() must
+     * be safe to call from several threads on different boards, as
+     * this class's is.
+     */
+    public DefaultBrain(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Makes rateBoard() read the board's evaluation features, or walk
+     * the grid as by default. The scores are the same either way.
+     */
+    public void setUseBoardFeatures(boolean useBoardFeatures) {
+        this.useBoardFeatures = useBoardFeatures;
+    }
+
+    public boolean isUsingBoardFeatures() {
+        return useBoardFeatures;
+    }
+
+    /**
+     * Makes bestMove() score all the plays in one batch with the given
+     * evaluator, or play by play with rateBoard() if it is null.
+     */
+    public void setEvaluator(BoardEvaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    public BoardEvaluator getEvaluator() {
+        return evaluator;
+    }
+
     /**
      Given a piece and a board, returns a move object that represents
      the best play for that piece, or returns null if no play is possible.
@@ -24,6 +106,14 @@ public class DefaultBrain implements Brain {
         // Allocate a move object if necessary
         if (move==null) move = new Brain.Move();
         
+        if (evaluator != null && !hasFullRows(board)) {
+            return batchBestMove(board, piece, limitHeight, move);
+        }
+        
+        if (pool != null && board.countPlacements(piece) >= PARALLEL_THRESHOLD) {
+            return parallelBestMove(board, piece, limitHeight, move);
+        }
+        
         double bestScore = 1e20;
         int bestX = 0;
         int bestY = 0;
@@ -74,6 +164,164 @@ public class DefaultBrain implements Brain {
     }
     
     
+    /*
+     True if the board has a row filled all the way across. Such rows
+     are cleared by every play in enumeratePlacements(), but only by
+     the plays that fill another row in the loop above.
+    */
+    private static boolean hasFullRows(Board board) {
+        for (int y = 0; y < board.getMaxHeight(); y++) {
+            if (board.getRowWidth(y) == board.getWidth()) return true;
+        }
+
+        return false;
+    }
+
+
+    /*
+     bestMove() with the plays scored in one batch by the evaluator.
+     enumeratePlacements() lists them in the order the loop above
+     tries them, so keeping the first lowest score gives its move.
+    */
+    private Brain.Move batchBestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        board.commit();
+
+        final int width = board.getWidth();
+        final int capacity = board.countPlacements(piece);
+        int[] rotations = new int[capacity];
+        int[] xs = new int[capacity];
+        int[] ys = new int[capacity];
+        int[] rowsCleared = new int[capacity];
+        int[] heights = new int[capacity * width];
+        double[] scores = new double[capacity];
+
+        final int count = board.enumeratePlacements(piece, limitHeight, rotations, xs, ys, rowsCleared, heights);
+
+        int blocks = piece.getBody().length;
+        for (int y = 0; y < board.getMaxHeight(); y++) {
+            blocks += board.getRowWidth(y);
+        }
+        evaluator.rateAll(width, count, heights, rowsCleared, blocks, scores);
+
+        int best = -1;
+        for (int i = 0; i < count; i++) {
+            if (best < 0 || scores[i] < scores[best]) {
+                best = i;
+            }
+        }
+
+        if (best < 0) return null;
+
+        Piece bestPiece = piece;
+        for (int r = 0; r < rotations[best]; r++) {
+            bestPiece = bestPiece.fastRotation();
+        }
+
+        move.x = xs[best];
+        move.y = ys[best];
+        move.piece = bestPiece;
+        move.score = scores[best];
+        return move;
+    }
+
+
+    /*
+     bestMove() split across the pool. The plays are numbered in the
+     order the serial loop tries them -- rotation by rotation, x by x
+     -- and each task takes a contiguous run of them and keeps the
+     first lowest score, as the serial loop does. Going through the
+     task results in order and taking only strictly lower scores then
+     gives the serial result, ties included.
+    */
+    private Brain.Move parallelBestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        board.commit();
+
+        final List<Piece> rotations = new ArrayList<>();
+        Piece current = piece;
+        do {
+            rotations.add(current);
+            current = current.fastRotation();
+        } while (current != piece);
+
+        final int plays = board.countPlacements(piece);
+        final int tasks = Math.max(1, Math.min(2 * pool.getParallelism(), plays / MIN_TASK_PLAYS));
+
+        List<Callable<Brain.Move>> searches = new ArrayList<>();
+        for (int task = 0; task < tasks; task++) {
+            final Board copy = board.copy();
+            final int start = (int) ((long) plays * task / tasks);
+            final int end = (int) ((long) plays * (task + 1) / tasks);
+
+            searches.add(() -> searchPlays(copy, rotations, start, end, limitHeight));
+        }
+
+        Brain.Move best = null;
+        try {
+            for (final Future<Brain.Move> result : pool.invokeAll(searches)) {
+                Brain.Move found = result.get();
+                if (found != null && (best == null || found.score < best.score)) {
+                    best = found;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted in bestMove()", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("bestMove() failed", e.getCause());
+        }
+
+        if (best == null) return null;
+
+        move.x = best.x;
+        move.y = best.y;
+        move.piece = best.piece;
+        move.score = best.score;
+        return move;
+    }
+
+    /*
+     The serial search of bestMove(), over plays start to end - 1 in
+     its numbering only. Returns null if none of them can be played.
+    */
+    private Brain.Move searchPlays(Board board, List<Piece> rotations, int start, int end, int limitHeight) {
+        Brain.Move best = null;
+        double bestScore = 1e20;
+        int first = 0;    // the number of the play at x = 0
+
+        for (final Piece current : rotations) {
+            final int yBound = limitHeight - current.getHeight() + 1;
+            final int xBound = board.getWidth() - current.getWidth() + 1;
+
+            for (int x = Math.max(0, start - first); x < xBound && first + x < end; x++) {
+                int y = board.dropHeight(current, x);
+                if (y < yBound) {
+                    int result = board.place(current, x, y);
+                    if (result <= Board.PLACE_ROW_FILLED) {
+                        if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+
+                        double score = rateBoard(board);
+
+                        if (score < bestScore) {
+                            if (best == null) best = new Brain.Move();
+                            bestScore = score;
+                            best.x = x;
+                            best.y = y;
+                            best.piece = current;
+                            best.score = score;
+                        }
+                    }
+
+                    board.undo();
+                }
+            }
+
+            first += Math.max(0, xBound);
+        }
+
+        return best;
+    }
+
+
     /*
      A simple brain function.
      Given a board, produce a number that rates
@@ -85,6 +333,12 @@ public class DefaultBrain implements Brain {
         final int width = board.getWidth();
         final int maxHeight = board.getMaxHeight();
         
+        if (useBoardFeatures) {
+            // the same sums, kept by the board
+            double avgHeight = ((double)board.getAggregateHeight())/width;
+            return (8*maxHeight + 40*avgHeight + 1.25*board.getHoles());
+        }
+        
         int sumHeight = 0;
         int holes = 0;
         
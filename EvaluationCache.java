@@ -0,0 +1,126 @@
+// EvaluationCache.java
+
+/**
+ * A bounded cache of board scores keyed by Board.getHash().
+ * The table is direct-mapped: each hash has exactly one slot, and
+ * storing into an occupied slot evicts the old entry. Lookups and
+ * stores are a few array accesses and never allocate.
+ * <p>
+ * Keeps hit, miss and eviction counts so the capacity can be sized
+ * from real runs. Only the hash is compared, so one cache should be
+ * used for boards of a single size.
+ */
+public class EvaluationCache {
+    private final long[] keys;
+    private final double[] values;
+    private final boolean[] used;
+    private final int mask;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates a cache with room for at least the given number of
+     * entries (rounded up to a power of two).
+     */
+    public EvaluationCache(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Bad cache capacity: " + capacity);
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+
+        this.keys = new long[size];
+        this.values = new double[size];
+        this.used = new boolean[size];
+        this.mask = size - 1;
+    }
+
+
+    /**
+     * Returns true if a score for the given hash is cached, counting
+     * the lookup as a hit or a miss. Use get() to read the score.
+     */
+    public boolean contains(long hash) {
+        int slot = slot(hash);
+
+        if (used[slot] && keys[slot] == hash) {
+            hits++;
+            return true;
+        }
+
+        misses++;
+        return false;
+    }
+
+    /**
+     * Returns the score cached for the given hash.
+     * Only valid right after contains() returned true.
+     */
+    public double get(long hash) {
+        return values[slot(hash)];
+    }
+
+    /**
+     * Stores the score for the given hash, evicting whatever
+     * was in its slot.
+     */
+    public void put(long hash, double score) {
+        int slot = slot(hash);
+
+        if (used[slot] && keys[slot] != hash) {
+            evictions++;
+        }
+
+        keys[slot] = hash;
+        values[slot] = score;
+        used[slot] = true;
+    }
+
+    private int slot(long hash) {
+        // fold the high bits in, the low bits alone may cluster
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+
+    /**
+     * Returns the number of entries the cache can hold.
+     */
+    public int getCapacity() {
+        return keys.length;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns hits / lookups, or 0 before the first lookup.
+     */
+    public double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Resets the hit, miss and eviction counts, keeping the entries.
+     */
+    public void resetStats() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    public String toString() {
+        return String.format("EvaluationCache[capacity=%d, hits=%d, misses=%d, evictions=%d, hit rate=%.1f%%]",
+                getCapacity(), hits, misses, evictions, 100 * getHitRate());
+    }
+}
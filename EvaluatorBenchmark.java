@@ -0,0 +1,154 @@
+// EvaluatorBenchmark.java
+
+import java.util.Random;
+
+/**
+ * Micro-benchmark for the BoardEvaluator backends.
+ * On boards of growing width with some random rubble, lists every
+ * play of every piece with enumeratePlacements() and scores them all
+ * with each backend's rateAll(), printing the average cost of one
+ * score. It then times a whole DefaultBrain.bestMove() three ways:
+ * rating play by play with rateBoard(), and in one batch with each
+ * backend.
+ * <p>
+ * The vector backend is only there when built and run with the
+ * jdk.incubator.vector module (see BoardEvaluator); otherwise its
+ * lines show the scalar fallback.
+ * <p>
+ * Run with: java --add-modules jdk.incubator.vector EvaluatorBenchmark
+ */
+public class EvaluatorBenchmark {
+    private static final int[] WIDTHS = {10, 64, 512, 4096};
+    private static final int HEIGHT = 24;
+    private static final int RUBBLE_PIECES_PER_COLUMN = 1;
+    private static final long WARMUP_SCORES = 2_000_000;
+    private static final long SCORES = 10_000_000;
+    private static final int WARMUP_MOVES = 2_000;
+    private static final int MOVES = 10_000;
+
+    public static void main(String[] args) {
+        BoardEvaluator scalar = BoardEvaluator.create("scalar");
+        BoardEvaluator vector = BoardEvaluator.create("vector");
+
+        System.out.println("Batch scoring cost by board width (" + vector.getName() + " backend loaded)");
+
+        for (final int width : WIDTHS) {
+            Board board = makeRubbleBoard(width);
+
+            System.out.printf("  width %5d: %7.1f ns/score scalar, %7.1f ns/score %s%n", width,
+                    nanosPerScore(board, scalar), nanosPerScore(board, vector), vector.getName());
+        }
+
+        System.out.println("bestMove() cost by board width");
+
+        for (final int width : WIDTHS) {
+            Board board = makeRubbleBoard(width);
+
+            // about the same number of plays for every width
+            int moves = Math.max(10, MOVES * 10 / width);
+
+            System.out.printf("  width %5d: %9.1f us rateBoard, %9.1f us scalar, %9.1f us %s%n", width,
+                    microsPerMove(board, null, moves), microsPerMove(board, scalar, moves),
+                    microsPerMove(board, vector, moves), vector.getName());
+        }
+    }
+
+    private static double nanosPerScore(Board board, BoardEvaluator evaluator) {
+        scoreAll(board, evaluator, WARMUP_SCORES / board.getWidth());
+
+        long start = System.nanoTime();
+        long scores = scoreAll(board, evaluator, SCORES / board.getWidth());
+        long elapsed = System.nanoTime() - start;
+
+        return (double) elapsed / scores;
+    }
+
+    /*
+     Scores every play of every piece with the evaluator, over and
+     over, until at least the given number of scores. Returns the
+     number of scores made.
+    */
+    private static long scoreAll(Board board, BoardEvaluator evaluator, long target) {
+        final int width = board.getWidth();
+        Piece[] pieces = Piece.getPieces();
+
+        // the plays only depend on the board, so list them once
+        int[][] heights = new int[pieces.length][];
+        int[][] rowsCleared = new int[pieces.length][];
+        int[] counts = new int[pieces.length];
+        int blocks = 0;
+        for (int y = 0; y < board.getMaxHeight(); y++) {
+            blocks += board.getRowWidth(y);
+        }
+
+        int capacity = 0;
+        for (int p = 0; p < pieces.length; p++) {
+            final int plays = board.countPlacements(pieces[p]);
+            capacity = Math.max(capacity, plays);
+
+            heights[p] = new int[plays * width];
+            rowsCleared[p] = new int[plays];
+            counts[p] = board.enumeratePlacements(pieces[p], HEIGHT, new int[plays], new int[plays],
+                    new int[plays], rowsCleared[p], heights[p]);
+        }
+
+        double[] scores = new double[capacity];
+        double sink = 0;
+        long made = 0;
+        while (made < target) {
+            for (int p = 0; p < pieces.length; p++) {
+                evaluator.rateAll(width, counts[p], heights[p], rowsCleared[p], blocks + 4, scores);
+                sink += scores[0];
+                made += counts[p];
+            }
+        }
+
+        if (sink == 42) System.out.println();    // keep the scores alive
+        return made;
+    }
+
+    private static double microsPerMove(Board board, BoardEvaluator evaluator, int moves) {
+        DefaultBrain brain = new DefaultBrain();
+        brain.setEvaluator(evaluator);
+
+        bestMoves(brain, board, Math.max(1, Math.min(WARMUP_MOVES, moves)));
+
+        long start = System.nanoTime();
+        bestMoves(brain, board, moves);
+        long elapsed = System.nanoTime() - start;
+
+        return elapsed / 1000.0 / moves;
+    }
+
+    private static void bestMoves(DefaultBrain brain, Board board, int moves) {
+        Piece[] pieces = Piece.getPieces();
+        Brain.Move move = new Brain.Move();
+
+        for (int i = 0; i < moves; i++) {
+            brain.bestMove(board, pieces[i % pieces.length], HEIGHT, move);
+        }
+    }
+
+    /*
+     A board of the given width with rubble at the bottom: random
+     drops, with the full rows cleared.
+    */
+    private static Board makeRubbleBoard(int width) {
+        Board board = Board.create(width, HEIGHT);
+        Random random = new Random(width);
+        Piece[] pieces = Piece.getPieces();
+
+        for (int i = 0; i < width * RUBBLE_PIECES_PER_COLUMN; i++) {
+            Piece piece = pieces[random.nextInt(pieces.length)];
+            int x = random.nextInt(width - piece.getWidth() + 1);
+            int y = board.dropHeight(piece, x);
+            if (y + piece.getHeight() > HEIGHT / 2) continue;
+
+            board.place(piece, x, y);
+            board.clearRows();
+            board.commit();
+        }
+
+        return board;
+    }
+}
@@ -0,0 +1,258 @@
+// ExpectimaxBrain.java
+
+/**
+ * A Brain that plans for the pieces it cannot see yet. JTetris draws
+ * every piece uniformly from its set, so after each play of the
+ * current piece, bestMove() averages over every piece that may come
+ * next how well that piece could then be played, and so on for the
+ * given depth -- expectimax, with the best play taken at each piece
+ * and the mean over the pieces that may follow. Boards at the end are
+ * rated by another brain's rateBoard(); lower is better, as
+ * everywhere.
+ * <p>
+ * Depth 1 is DefaultBrain's search; depth 2 looks one unknown piece
+ * ahead and rates about (plays)^2 * (pieces) boards, some 8,000 for
+ * the standard pieces; depth 3 rates some 300 times more.
+ * <p>
+ * The best expected score of a piece on a board, with so many pieces
+ * still to play, is stored in a transposition table keyed by the
+ * board hash, the piece ID and the depth left, so that a position
+ * reached by different orders of play -- A then B, or B then A -- is
+ * only searched once. Such orders need two known plays before the
+ * position, so the table only gets hits from depth 3, and then few: a
+ * few percent of the positions, which saves about as many of the
+ * boards rated. The table is an EvaluationCache of bounded size,
+ * evicting on collision, and is kept from one move to the next; its
+ * values do not depend on it, so a brain with a table of one entry
+ * plays the same moves.
+ * <p>
+ * getNodes(), getNanos() and getNodesPerSecond() count the boards
+ * rated and the time spent in bestMove(); getTable() gives the table
+ * hit rate.
+ */
+public class ExpectimaxBrain extends DefaultBrain {
+    /**
+     * The score of a board on which a piece cannot be played --
+     * worse than any real board, but small enough to average.
+     */
+    public static final double TOP_OUT_SCORE = 1e9;
+
+    private final DefaultBrain scorer;
+    private final Piece[] pieces;
+    private final int depth;
+    private final EvaluationCache table;
+
+    private long nodes;
+    private long nanos;
+
+    /**
+     * Creates a brain searching the given number of pieces deep, the
+     * current one included, over the pieces of JTetris's default set
+     * (see PieceSet.getDefault()), with a table of about capacity
+     * entries.
+     */
+    public ExpectimaxBrain(DefaultBrain scorer, int depth, int capacity) {
+        this(scorer, PieceSet.getDefault(), depth, capacity);
+    }
+
+    /**
+     * Creates a brain searching the given number of pieces deep, the
+     * current one included, over the pieces of the given set, with a
+     * table of about capacity entries.
+     */
+    public ExpectimaxBrain(DefaultBrain scorer, PieceSet pieces, int depth, int capacity) {
+        if (depth < 1) throw new IllegalArgumentException("Bad search depth: " + depth);
+
+        this.scorer = scorer;
+        this.pieces = pieces.getPieces();
+        this.depth = depth;
+        this.table = new EvaluationCache(capacity);
+    }
+
+
+    /**
+     * Returns the play of the piece with the lowest expected score
+     * after the unknown pieces that follow, or null if it cannot be
+     * played. See the Brain interface for the rest.
+     */
+    @Override
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        if (move == null) move = new Brain.Move();
+
+        final long start = System.nanoTime();
+        board.commit();
+
+        // every continuation may top out, but a play that fits still beats none
+        double bestScore = Double.POSITIVE_INFINITY;
+        int bestX = 0;
+        int bestY = 0;
+        Piece bestPiece = null;
+
+        Piece current = piece;
+        do {
+            final int yBound = limitHeight - current.getHeight() + 1;
+            final int xBound = board.getWidth() - current.getWidth() + 1;
+
+            for (int x = 0; x < xBound; x++) {
+                int y = board.dropHeight(current, x);
+                if (y < yBound) {
+                    double score = rateAfter(board, current, x, y, depth - 1, limitHeight);
+
+                    if (score < bestScore) {
+                        bestScore = score;
+                        bestX = x;
+                        bestY = y;
+                        bestPiece = current;
+                    }
+                }
+            }
+
+            current = current.fastRotation();
+        } while (current != piece);
+
+        nanos += System.nanoTime() - start;
+
+        if (bestPiece == null) return null;
+
+        move.x = bestX;
+        move.y = bestY;
+        move.piece = bestPiece;
+        move.score = bestScore;
+        return move;
+    }
+
+    /*
+     The expected score of the board after playing the piece at x, y
+     and clearing rows, with the given number of unknown pieces still
+     to come, or TOP_OUT_SCORE if the play does not fit. The board is
+     left as it was.
+    */
+    private double rateAfter(Board board, Piece piece, int x, int y, int remaining, int limitHeight) {
+        if (remaining == 0) {
+            double score = TOP_OUT_SCORE;
+
+            int result = board.place(piece, x, y);
+            if (result <= Board.PLACE_ROW_FILLED) {
+                if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+
+                score = rateBoard(board);
+                nodes++;
+            }
+
+            board.undo();
+            return score;
+        }
+
+        board.checkpoint();
+
+        double score = TOP_OUT_SCORE;
+        int result = board.place(piece, x, y);
+        if (result <= Board.PLACE_ROW_FILLED) {
+            board.clearRows();
+            board.commit();
+
+            // every next piece is as likely
+            double sum = 0;
+            for (final Piece next : pieces) {
+                sum += bestScore(board, next, remaining, limitHeight);
+            }
+            score = sum / pieces.length;
+        }
+
+        board.rollback();
+        return score;
+    }
+
+    /*
+     The lowest expected score over the plays of the piece on the
+     committed board, with remaining pieces to play, this one
+     included -- from the table if it is there.
+    */
+    private double bestScore(Board board, Piece piece, int remaining, int limitHeight) {
+        final long key = key(board.getHash(), piece.getId(), remaining, limitHeight);
+        if (table.contains(key)) {
+            return table.get(key);
+        }
+
+        double best = TOP_OUT_SCORE;
+
+        Piece current = piece;
+        do {
+            final int yBound = limitHeight - current.getHeight() + 1;
+            final int xBound = board.getWidth() - current.getWidth() + 1;
+
+            for (int x = 0; x < xBound; x++) {
+                int y = board.dropHeight(current, x);
+                if (y < yBound) {
+                    best = Math.min(best, rateAfter(board, current, x, y, remaining - 1, limitHeight));
+                }
+            }
+
+            current = current.fastRotation();
+        } while (current != piece);
+
+        table.put(key, best);
+        return best;
+    }
+
+    /*
+     Mixes what a stored value depends on into one table key.
+    */
+    private static long key(long boardHash, int pieceId, int remaining, int limitHeight) {
+        long key = boardHash;
+        key ^= (pieceId + 1) * 0x9E3779B97F4A7C15L;
+        key ^= ((long) remaining << 32 | limitHeight) * 0xC2B2AE3D27D4EB4FL;
+        return key;
+    }
+
+    @Override
+    public double rateBoard(Board board) {
+        return scorer.rateBoard(board);
+    }
+
+
+    /**
+     * Returns the transposition table, e.g. to read its hit rate.
+     */
+    public EvaluationCache getTable() {
+        return table;
+    }
+
+    /**
+     * Returns the number of boards rated since the last resetStats().
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Returns the time spent in bestMove() since the last
+     * resetStats(), in nanoseconds.
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Returns the boards rated per second of bestMove(), or 0 before
+     * the first move.
+     */
+    public double getNodesPerSecond() {
+        return nanos == 0 ? 0 : nodes * 1e9 / nanos;
+    }
+
+    /**
+     * Resets the node count, the time and the table statistics,
+     * keeping the table entries.
+     */
+    public void resetStats() {
+        nodes = 0;
+        nanos = 0;
+        table.resetStats();
+    }
+
+    public String toString() {
+        return String.format("ExpectimaxBrain[depth=%d, nodes=%d, %.0f nodes/s, table hit rate=%.1f%%]",
+                depth, nodes, getNodesPerSecond(), 100 * table.getHitRate());
+    }
+}
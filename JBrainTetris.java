@@ -1,6 +1,7 @@
 import javax.swing.*;
 import java.awt.*;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 public class JBrainTetris extends JTetris {
 
@@ -21,7 +22,16 @@ public class JBrainTetris extends JTetris {
     JBrainTetris(int pixels) {
         super(pixels);
 
-        this.brain = new DefaultBrain();
+        // -Dtetris.parallel=true spreads the brain's search over the
+        // cores, for wide boards and large piece sets
+        this.brain = Boolean.getBoolean("tetris.parallel")
+                ? new DefaultBrain(ForkJoinPool.commonPool()) : new DefaultBrain();
+
+        // -Dtetris.evaluator=scalar or vector scores each piece's plays
+        // in one batch
+        if (System.getProperty(BoardEvaluator.EVALUATOR_PROPERTY) != null) {
+            brain.setEvaluator(BoardEvaluator.create());
+        }
     }
 
 
@@ -65,8 +75,10 @@ public class JBrainTetris extends JTetris {
             if (brainMode.isSelected()) {
 
                 if (pieceCounter != count) {
+                    // the brain needs the board without the falling piece
                     board.undo();
                     nextMove = brain.bestMove(board, currentPiece, HEIGHT, nextMove);
+                    board.place(currentPiece, currentX, currentY);
                     pieceCounter = count;
                 }
 
@@ -88,7 +100,8 @@ public class JBrainTetris extends JTetris {
 
     private void checkForRotation() {
         if (!currentPiece.equals(nextMove.piece)) {
-            currentPiece = currentPiece.fastRotation();
+            // rotate within the board, so it stays in sync with currentPiece
+            moveCurrent(currentPiece.fastRotation(), currentX, currentY);
         }
     }
 
@@ -30,14 +30,20 @@ import java.awt.Toolkit;
  -tick() moves the current piece
  -a timer object calls tick(DOWN) periodically
  -keystrokes call tick() with LEFT, RIGHT, etc.
- -Board.undo() is used to remove the piece from its
- old position and then Board.place() is used to install
- the piece in its new position.
+ -Board.move() is used to shift the piece from its
+ old position to its new position, touching only the
+ blocks that differ. For a DROP, Board.undo() removes the
+ piece first so dropHeight() does not see it, and then
+ Board.place() installs it in its new position.
+ -Repaints are limited to the rows the board reports as
+ changed (Board.getDirtyRowStart/End()), and paintComponent()
+ only draws the blocks inside the clip rect.
 */
 
 public class JTetris extends JComponent {
-	// size of the board in blocks
-	public static final int WIDTH = 10;
+	// size of the board in blocks -- the width can be raised
+	// with -Dtetris.width=..., e.g. for wide board experiments
+	public static final int WIDTH = Integer.getInteger("tetris.width", 10);
 	public static final int HEIGHT = 20;
 	
 	// Extra blocks at the top for pieces to start.
@@ -105,8 +111,13 @@ public class JTetris extends JComponent {
 				(HEIGHT+TOP_SPACE)*pixels+2));
 		gameOn = false;
 		
-		pieces = Piece.getPieces();
-		board = new Board(WIDTH, HEIGHT + TOP_SPACE);
+		// the standard pieces, or the set named by -Dtetris.pieces=...
+		PieceSet pieceSet = PieceSet.getDefault();
+		if (pieceSet.getMaxWidth() > WIDTH) {
+			throw new IllegalArgumentException("Piece set " + pieceSet + " is too wide for the board");
+		}
+		pieces = pieceSet.getPieces();
+		board = Board.create(WIDTH, HEIGHT + TOP_SPACE);
 
 
 		/*
@@ -205,7 +216,7 @@ public class JTetris extends JComponent {
 	*/
 	public void startGame() {
 		// cheap way to reset the board state
-		board = new Board(WIDTH, HEIGHT + TOP_SPACE);
+		board = Board.create(WIDTH, HEIGHT + TOP_SPACE);
 		
 		// draw the new board state once
 		repaint();
@@ -281,6 +292,31 @@ public class JTetris extends JComponent {
 	}
 
 
+	/**
+	 Moves the current piece, which must be in the board
+	 and uncommitted, to the given piece and position.
+	 Only the blocks that differ between the old and new
+	 position are changed. Does the necessary repaints.
+	 If the move is not possible, the board is not changed.
+	 Returns the same error code as Board.place().
+	*/
+	public int moveCurrent(Piece piece, int x, int y) {
+		int result = board.move(currentPiece, currentX, currentY, piece, x, y);
+
+		if (result <= Board.PLACE_ROW_FILLED) { // SUCESS
+			// repaint the rect where it used to be
+			repaintPiece(currentPiece, currentX, currentY);
+			currentPiece = piece;
+			currentX = x;
+			currentY = y;
+			// repaint the rect where it is now
+			repaintPiece(currentPiece, currentX, currentY);
+		}
+
+		return(result);
+	}
+
+
 	/**
 	 Selects the next piece to use using the random generator
 	 set in startGame().
@@ -409,7 +445,8 @@ public class JTetris extends JComponent {
 	 and the timer calls it with the verb DOWN to move
 	 the piece down one square.
 
-	 Before this is called, the piece is at some location in the board.
+	 Before this is called, the piece is at some location in the board,
+	 placed but not committed.
 	 This advances the piece to be at its next location.
 	 
 	 Overriden by the brain when it plays.
@@ -417,28 +454,40 @@ public class JTetris extends JComponent {
 	public void tick(int verb) {
 		if (!gameOn) return;
 		
-		if (currentPiece != null) {
+		int result;
+		if (verb == DROP) {
+			// dropHeight() must not see the piece itself
 			board.undo();	// remove the piece from its old position
+			
+			// Sets the newXXX ivars
+			computeNewPosition(verb);
+			
+			// try out the new position (rolls back if it doesn't work)
+			result = setCurrent(newPiece, newX, newY);
+			
+			// if it didn't work, put it back the way it was
+			if (result >= Board.PLACE_OUT_BOUNDS) {
+				board.place(currentPiece, currentX, currentY);
+			}
+		}
+		else {
+			// Sets the newXXX ivars
+			computeNewPosition(verb);
+			
+			// move the piece in place (leaves it where it was if it doesn't work)
+			result = moveCurrent(newPiece, newX, newY);
 		}
-		
-		// Sets the newXXX ivars
-		computeNewPosition(verb);
-		
-		// try out the new position (rolls back if it doesn't work)
-		int result = setCurrent(newPiece, newX, newY);
 		
 		// if row clearing is going to happen, draw the
-		// whole board so the green row shows up
+		// rows of the piece all the way across so the green row shows up
 		if (result ==  Board.PLACE_ROW_FILLED) {
-			repaint();
+			repaintRows(currentY, currentY + currentPiece.getHeight());
 		}
 		
 
 		boolean failed = (result >= Board.PLACE_OUT_BOUNDS);
 		
-		// if it didn't work, put it back the way it was
 		if (failed) {
-			if (currentPiece != null) board.place(currentPiece, currentX, currentY);
 			repaintPiece(currentPiece, currentX, currentY);
 		}
 		
@@ -463,7 +512,7 @@ public class JTetris extends JComponent {
 					default: score += 50;  // could happen with non-standard pieces
 				}
 				updateCounters();
-				repaint();	// repaint to show the result of the row clearing
+				repaintDirtyRows();	// repaint to show the result of the row clearing
 			}
 			
 			
@@ -499,8 +548,33 @@ public class JTetris extends JComponent {
 		}
 		else {
 			// Not-optimized -- rather than repaint
-			// just the piece rect, repaint the whole board.
-			repaint();
+			// just the piece rect, repaint the rows that changed.
+			repaintDirtyRows();
+		}
+	}
+
+
+	/**
+	 Generates a repaint for the rows the board changed since
+	 the last call, all the way across.
+	*/
+	public void repaintDirtyRows() {
+		int start = board.getDirtyRowStart();
+		int end = board.getDirtyRowEnd();
+		board.resetDirtyRows();
+		
+		repaintRows(start, end);
+	}
+	
+	
+	/**
+	 Generates a repaint for the rectangle that just encloses
+	 the rows start to end-1, all the way across.
+	*/
+	public void repaintRows(int start, int end) {
+		if (start < end) {
+			int py = yPixel(end - 1);
+			repaint(0, py, getWidth(), yPixel(start - 1) - py);
 		}
 	}
 	
@@ -556,12 +630,9 @@ public class JTetris extends JComponent {
 		g.drawLine(0, spacerY, getWidth()-1, spacerY);
 
 
-		// check if we are drawing with clipping
-		//Shape shape = g.getClip();
-		Rectangle clip = null;
-		if (DRAW_OPTIMIZE) {
-			clip = g.getClipBounds();
-		}
+		// only the blocks in the clip rect need drawing --
+		// after a partial repaint it is a few rows or less
+		Rectangle clip = g.getClipBounds();
 
 
 		// Factor a few things out to help the optimizer
@@ -579,13 +650,20 @@ public class JTetris extends JComponent {
 			int right = xPixel(x+1) -1;
 			
 			// skip this x if it is outside the clip rect
-			if (DRAW_OPTIMIZE && clip!=null) {
+			if (clip!=null) {
 				if ((right<clip.x) || (left>=(clip.x+clip.width))) continue;
 			}
 			
 			// draw from 0 up to the col height
 			final int yHeight = board.getColumnHeight(x);
 			for (y=0; y<yHeight; y++) {
+				// rows go up as pixels go down: skip the rows below
+				// the clip rect, and stop at the first one above it
+				if (clip!=null) {
+					if (yPixel(y)>=(clip.y+clip.height)) continue;
+					if (yPixel(y-1)<=clip.y) break;
+				}
+				
 				if (board.getGrid(x, y)) {
 					boolean filled = (board.getRowWidth(y)==bWidth);
 					if (filled) g.setColor(Color.green);
@@ -0,0 +1,326 @@
+// PersistentBoard.java
+
+/**
+ * An immutable Tetris board.
+ * Instead of changing the receiver, place() and clearRows() return
+ * a new board. The rows are kept in small chunks of row masks that
+ * are shared between a board and the boards derived from it: a
+ * placement copies only the chunks it touches and the short array
+ * of chunk pointers, so thousands of candidate positions can be held
+ * at once and handed between threads without copying or locking.
+ * <p>
+ * Converts to and from the mutable {@link Board} with toBoard() and
+ * of(), for example to score a position with DefaultBrain.rateBoard().
+ */
+public final class PersistentBoard {
+    // rows per chunk is 1 << CHUNK_SHIFT
+    private static final int CHUNK_SHIFT = 3;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final int width;
+    private final int height;
+    private final long fullRow;
+
+    // Never modified once the board is constructed --
+    // chunks are shared with other boards.
+    private final long[][] chunks;
+    private final int[] heights;
+    private final int maxHeight;
+
+    private PersistentBoard(int width, int height, long[][] chunks, int[] heights, int maxHeight) {
+        this.width = width;
+        this.height = height;
+        this.fullRow = -1L >>> (Long.SIZE - width);
+        this.chunks = chunks;
+        this.heights = heights;
+        this.maxHeight = maxHeight;
+    }
+
+
+    /**
+     * Returns an empty board of the given width and height
+     * measured in blocks.
+     */
+    public static PersistentBoard empty(int width, int height) {
+        if (width < 1 || width > Long.SIZE) {
+            throw new IllegalArgumentException("Board width must be between 1 and " + Long.SIZE + ": " + width);
+        }
+
+        // all the rows of an empty board can share one zero chunk
+        long[] emptyChunk = new long[CHUNK_SIZE];
+        long[][] chunks = new long[chunkCount(height)][];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = emptyChunk;
+        }
+
+        return new PersistentBoard(width, height, chunks, new int[width], 0);
+    }
+
+
+    /**
+     * Returns an immutable copy of the given board, which may be
+     * of any implementation. The board should be in the committed state.
+     */
+    public static PersistentBoard of(Board board) {
+        final int width = board.getWidth();
+        final int height = board.getHeight();
+        if (width > Long.SIZE) {
+            throw new IllegalArgumentException("Board width must be between 1 and " + Long.SIZE + ": " + width);
+        }
+
+        long[][] chunks = new long[chunkCount(height)][];
+
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new long[CHUNK_SIZE];
+        }
+
+        for (int y = 0; y < height; y++) {
+            chunks[y >> CHUNK_SHIFT][y & CHUNK_MASK] = rowMask(board, y);
+        }
+
+        int[] heights = new int[width];
+        for (int x = 0; x < heights.length; x++) {
+            heights[x] = board.getColumnHeight(x);
+        }
+
+        return new PersistentBoard(width, height, chunks, heights, board.getMaxHeight());
+    }
+
+    private static long rowMask(Board board, int y) {
+        if (board instanceof BitBoard) {
+            return ((BitBoard) board).getRowMask(y);
+        }
+
+        long mask = 0;
+        for (int x = 0; x < board.getWidth(); x++) {
+            if (board.getGrid(x, y)) mask |= 1L << x;
+        }
+
+        return mask;
+    }
+
+
+    /**
+     * Returns a new, committed, mutable BitBoard holding the same blocks.
+     */
+    public Board toBoard() {
+        long[] rows = new long[height];
+
+        for (int y = 0; y < height; y++) {
+            rows[y] = row(y);
+        }
+
+        return new BitBoard(width, height, rows);
+    }
+
+
+    private static int chunkCount(int height) {
+        return (height + CHUNK_SIZE - 1) >> CHUNK_SHIFT;
+    }
+
+    private long row(int y) {
+        return chunks[y >> CHUNK_SHIFT][y & CHUNK_MASK];
+    }
+
+
+    /**
+     * Returns the width of the board in blocks.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the board in blocks.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the max column height present in the board.
+     * For an empty board this is 0.
+     */
+    public int getMaxHeight() {
+        return maxHeight;
+    }
+
+    /**
+     * Returns the height of the given column --
+     * i.e. the y value of the highest block + 1.
+     */
+    public int getColumnHeight(int x) {
+        return heights[x];
+    }
+
+    /**
+     * Returns the number of filled blocks in the given row.
+     */
+    public int getRowWidth(int y) {
+        return Long.bitCount(row(y));
+    }
+
+    /**
+     * Returns true if the given block is filled in the board.
+     * Blocks outside of the valid width/height area
+     * always return true.
+     */
+    public boolean getGrid(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            return true;
+        }
+
+        return (row(y) & (1L << x)) != 0;
+    }
+
+    /**
+     * Given a piece and an x, returns the y value where the piece
+     * would come to rest if it were dropped straight down at that x.
+     */
+    public int dropHeight(Piece piece, int x) {
+        int y = 0;
+        int[] pieceSkirt = piece.getSkirt();
+
+        for (int i = 0; i < pieceSkirt.length; i++) {
+            int currY = heights[x + i] - pieceSkirt[i];
+
+            if (currY > y) {
+                y = currY;
+            }
+        }
+
+        return y;
+    }
+
+
+    /**
+     * Returns a new board with the body of the piece added at x, y,
+     * or null if the piece would be out of bounds or collide with
+     * existing blocks. The receiver is not changed.
+     */
+    public PersistentBoard place(Piece piece, int x, int y) {
+        final int[] bodyX = piece.getBodyX();
+        final int[] bodyY = piece.getBodyY();
+
+        for (int i = 0; i < bodyX.length; i++) {
+            if (getGrid(x + bodyX[i], y + bodyY[i])) {
+                return null;
+            }
+        }
+
+        long[][] newChunks = chunks.clone();
+        int[] newHeights = heights.clone();
+        int newMaxHeight = maxHeight;
+
+        for (int i = 0; i < bodyX.length; i++) {
+            final int px = x + bodyX[i];
+            final int py = y + bodyY[i];
+            final int chunk = py >> CHUNK_SHIFT;
+
+            // copy each touched chunk once, the first time it is written
+            if (newChunks[chunk] == chunks[chunk]) {
+                newChunks[chunk] = chunks[chunk].clone();
+            }
+            newChunks[chunk][py & CHUNK_MASK] |= 1L << px;
+
+            newHeights[px] = Math.max(newHeights[px], py + 1);
+            newMaxHeight = Math.max(newMaxHeight, py + 1);
+        }
+
+        return new PersistentBoard(width, height, newChunks, newHeights, newMaxHeight);
+    }
+
+
+    /**
+     * Returns the number of rows that are filled all the way across.
+     */
+    public int getFilledRowCount() {
+        int count = 0;
+
+        for (int y = 0; y < maxHeight; y++) {
+            if (row(y) == fullRow) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Returns a new board with the rows that are filled all the way
+     * across deleted and the rows above moved down, or the receiver
+     * itself if no row is filled. The chunks below the lowest filled
+     * row are shared with the receiver.
+     */
+    public PersistentBoard clearRows() {
+        int write = 0;
+        while (write < maxHeight && row(write) != fullRow) {
+            write++;
+        }
+
+        if (write == maxHeight) {
+            return this;
+        }
+
+        long[][] newChunks = chunks.clone();
+        final int firstChunk = write >> CHUNK_SHIFT;
+        final int lastChunk = (maxHeight - 1) >> CHUNK_SHIFT;
+
+        // the chunks from the lowest filled row up to the max height
+        // are rebuilt; the rows in them below that row are kept
+        for (int c = firstChunk; c <= lastChunk; c++) {
+            newChunks[c] = new long[CHUNK_SIZE];
+        }
+        System.arraycopy(chunks[firstChunk], 0, newChunks[firstChunk], 0, write & CHUNK_MASK);
+
+        for (int read = write; read < maxHeight; read++) {
+            long mask = row(read);
+            if (mask != fullRow) {
+                newChunks[write >> CHUNK_SHIFT][write & CHUNK_MASK] = mask;
+                write++;
+            }
+        }
+
+        // recompute the heights top-down from the new max height
+        int[] newHeights = new int[width];
+        int newMaxHeight = 0;
+        long seen = 0;
+
+        for (int y = write - 1; y >= 0 && seen != fullRow; y--) {
+            long newTops = newChunks[y >> CHUNK_SHIFT][y & CHUNK_MASK] & ~seen;
+            seen |= newTops;
+
+            if (newTops != 0 && newMaxHeight == 0) {
+                newMaxHeight = y + 1;
+            }
+
+            while (newTops != 0) {
+                newHeights[Long.numberOfTrailingZeros(newTops)] = y + 1;
+                newTops &= newTops - 1;
+            }
+        }
+
+        return new PersistentBoard(width, height, newChunks, newHeights, newMaxHeight);
+    }
+
+
+    /*
+     Renders the board state as a big String, suitable for printing.
+     Same format as Board.toString().
+     */
+    public String toString() {
+        StringBuilder buff = new StringBuilder();
+        for (int y = height - 1; y >= 0; y--) {
+            buff.append('|');
+            for (int x = 0; x < width; x++) {
+                if (getGrid(x, y)) buff.append('+');
+                else buff.append(' ');
+            }
+            buff.append("|\n");
+        }
+        for (int x = 0; x < width + 2; x++) buff.append('-');
+        return (buff.toString());
+    }
+}
@@ -0,0 +1,159 @@
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+public class PersistentBoardTest extends TestCase {
+    static final int HEIGHT = 20;
+    static final int[] WIDTHS = {3, 10, 13, 64};
+
+    // Check that of() then toBoard() gives back the same board,
+    // from every board implementation
+    public void testRoundTrip() {
+        for (final String implementation : Board.implementations()) {
+            for (final int width : WIDTHS) {
+                Random random = new Random(width);
+                Board board = Board.create(implementation, width, HEIGHT);
+
+                for (int i = 0; i < width * 2; i++) {
+                    Piece piece = randomPiece(random, width);
+                    int x = random.nextInt(width - piece.getWidth() + 1);
+                    int y = board.dropHeight(piece, x);
+                    if (y + piece.getHeight() > HEIGHT) continue;
+
+                    // full rows left in place, as well as cleared
+                    board.place(piece, x, y);
+                    if (random.nextBoolean()) board.clearRows();
+                    board.commit();
+
+                    PersistentBoard persistent = PersistentBoard.of(board);
+                    assertSameBoard(board, persistent);
+                    assertSameBoard(board, PersistentBoard.of(persistent.toBoard()));
+                    assertEquals(board.getHash(), persistent.toBoard().getHash());
+                }
+            }
+        }
+    }
+
+    // Check place() and clearRows() against the same calls on a
+    // mutable board, and that every earlier version stays as it was
+    public void testPlaceAndClearRowsMatchBoard() {
+        for (final int width : WIDTHS) {
+            Random random = new Random(width);
+            Board board = Board.create(width, HEIGHT);
+            PersistentBoard persistent = PersistentBoard.empty(width, HEIGHT);
+
+            List<PersistentBoard> versions = new ArrayList<PersistentBoard>();
+            List<Board> expected = new ArrayList<Board>();
+
+            for (int i = 0; i < width * 20; i++) {
+                Piece piece = randomPiece(random, width);
+                int x = random.nextInt(width - piece.getWidth() + 1);
+                int y = board.dropHeight(piece, x);
+                assertEquals(y, persistent.dropHeight(piece, x));
+
+                // now and then somewhere it may not fit
+                if (random.nextInt(4) == 0) y = random.nextInt(HEIGHT);
+
+                int result = board.place(piece, x, y);
+                PersistentBoard placed = persistent.place(piece, x, y);
+
+                if (result > Board.PLACE_ROW_FILLED) {
+                    assertNull(placed);
+                    board.undo();
+                    continue;
+                }
+                assertNotNull(placed);
+                assertSameBoard(board, placed);
+                assertEquals(result == Board.PLACE_ROW_FILLED, placed.getFilledRowCount() > 0);
+                versions.add(placed);
+                expected.add(board.copy());
+
+                int filled = placed.getFilledRowCount();
+                assertEquals(filled, board.clearRows());
+                PersistentBoard cleared = placed.clearRows();
+                if (filled == 0) assertSame(placed, cleared);
+                assertSameBoard(board, cleared);
+                board.commit();
+
+                versions.add(cleared);
+                expected.add(board.copy());
+                persistent = cleared;
+
+                // start over when the stack gets high
+                if (board.getMaxHeight() > HEIGHT - 4) {
+                    board = Board.create(width, HEIGHT);
+                    persistent = PersistentBoard.empty(width, HEIGHT);
+                }
+            }
+
+            // the boards derived later share chunks with these,
+            // and must not have changed them
+            for (int i = 0; i < versions.size(); i++) {
+                assertSameBoard(expected.get(i), versions.get(i));
+            }
+        }
+    }
+
+    // Check that the receiver is unchanged by place() and clearRows()
+    public void testReceiverUnchanged() {
+        Piece stick = new Piece(Piece.STICK_STR).computeNextRotation();
+        Piece square = new Piece(Piece.SQUARE_STR);
+
+        PersistentBoard empty = PersistentBoard.empty(4, 8);
+        PersistentBoard row = empty.place(stick, 0, 0);
+        PersistentBoard square1 = row.place(square, 0, 1);
+        PersistentBoard square2 = row.place(square, 2, 1);
+        PersistentBoard cleared = square1.place(square, 2, 1).clearRows();
+
+        assertEquals(0, empty.getMaxHeight());
+        assertEquals(0, empty.getRowWidth(0));
+
+        assertEquals(1, row.getMaxHeight());
+        assertEquals(4, row.getRowWidth(0));
+        assertEquals(0, row.getRowWidth(1));
+
+        assertTrue(square1.getGrid(0, 1));
+        assertFalse(square1.getGrid(2, 1));
+        assertEquals(3, square1.getColumnHeight(0));
+        assertEquals(1, square1.getColumnHeight(2));
+
+        assertFalse(square2.getGrid(0, 1));
+        assertTrue(square2.getGrid(2, 1));
+        assertEquals(4, square2.getRowWidth(0));
+
+        assertEquals(0, cleared.getMaxHeight());
+        assertNull(row.place(square, 0, 0));
+        assertEquals(4, row.getRowWidth(0));
+    }
+
+    private Piece randomPiece(Random random, int width) {
+        Piece[] pieces = Piece.getPieces();
+        Piece piece;
+        do {
+            piece = pieces[random.nextInt(pieces.length)];
+        } while (piece.getWidth() > width);
+
+        return piece;
+    }
+
+    private void assertSameBoard(Board expected, PersistentBoard actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        assertEquals(expected.getMaxHeight(), actual.getMaxHeight());
+
+        for (int x = 0; x < expected.getWidth(); x++) {
+            assertEquals(expected.getColumnHeight(x), actual.getColumnHeight(x));
+        }
+
+        for (int y = 0; y < expected.getHeight(); y++) {
+            assertEquals(expected.getRowWidth(y), actual.getRowWidth(y));
+
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getGrid(x, y), actual.getGrid(x, y));
+            }
+        }
+    }
+}
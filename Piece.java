@@ -1,6 +1,9 @@
 // Piece.java
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * An immutable representation of a tetris piece in a particular rotation.
@@ -17,28 +20,108 @@ import java.util.*;
  * int width = stick.getWidth();		// get its width
  * Piece stick2 = stick.fastRotation();	// get the next rotation, fast way
  * </pre>
+ * <p>
+ * Every distinct shape -- set of body points -- is registered once
+ * and given a small integer ID, shared by all the pieces with that
+ * shape however they were made. equals() and hashCode() just
+ * compare the IDs, so pieces are cheap keys for caches and tables,
+ * and intern() gives the canonical instance of a shape. The registry
+ * is safe to use from several threads.
  */
 public class Piece {
     // Starter code specs out a few basic things, leaving
     // the algorithms to be done.
     private TPoint[] body;
+    private int[] bodyX;
+    private int[] bodyY;
     private int[] skirt;
+    private long[] rowMasks;
+    private int[] leftProfile;
+    private int[] rightProfile;
+    private int[] hat;
     private int width;
     private int height;
     private Piece next; // "next" rotation
+    private final int id; // shape ID, see getId()
 
-    static private Piece[] pieces;    // singleton static array of first rotations
+    // the shape registry: IDs by shape key, and the canonical piece of each ID
+    private static final ConcurrentMap<ShapeKey, Integer> shapeIds = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Integer, Piece> canonical = new ConcurrentHashMap<>();
+    private static final AtomicInteger nextId = new AtomicInteger();
 
     /**
      * Defines a new piece given a TPoint[] array of its body.
      * Makes its own copy of the array and the TPoints inside it.
+     * The body must touch x = 0 and y = 0, with no negative
+     * coordinates, and be at most 64 blocks wide; otherwise an
+     * IllegalArgumentException is thrown.
      */
     public Piece(TPoint[] points) {
         this.body = points;
         this.width = calculateWidth();
         this.height = calculateHeight();
 
+        checkBody();
+        initializeBodyOffsets();
         initializeSkirt();
+        initializeRowMasks();
+        initializeProfiles();
+
+        this.id = shapeIds.computeIfAbsent(new ShapeKey(rowMasks, body.length), key -> nextId.getAndIncrement());
+    }
+
+    /*
+     The key of a piece's shape in the registry: its row masks, which
+     do not depend on the order of the body points, and the number of
+     points, so a body listing a point twice is not the same shape as
+     the body without the repeat.
+    */
+    private static final class ShapeKey {
+        private final long[] rowMasks;
+        private final int blocks;
+
+        ShapeKey(long[] rowMasks, int blocks) {
+            this.rowMasks = rowMasks;
+            this.blocks = blocks;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ShapeKey)) return false;
+            ShapeKey other = (ShapeKey) obj;
+
+            return other.blocks == blocks && Arrays.equals(other.rowMasks, rowMasks);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(rowMasks) + blocks;
+        }
+    }
+
+    private void initializeBodyOffsets() {
+        bodyX = new int[body.length];
+        bodyY = new int[body.length];
+
+        for (int i = 0; i < body.length; i++) {
+            bodyX[i] = body[i].x;
+            bodyY[i] = body[i].y;
+        }
+    }
+
+    private void checkBody() {
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+
+        for (final TPoint tp : body) {
+            minX = Math.min(minX, tp.x);
+            minY = Math.min(minY, tp.y);
+        }
+
+        if (minX != 0 || minY != 0 || width > Long.SIZE) {
+            throw new IllegalArgumentException("Piece body must start at 0,0 and be at most "
+                    + Long.SIZE + " wide: " + Arrays.toString(body));
+        }
     }
 
     private int calculateWidth() {
@@ -91,6 +174,31 @@ public class Piece {
         return resultY;
     }
 
+    private void initializeRowMasks() {
+        rowMasks = new long[height];
+
+        for (final TPoint tp : body) {
+            rowMasks[tp.y] |= 1L << tp.x;
+        }
+    }
+
+    private void initializeProfiles() {
+        leftProfile = new int[height];
+        rightProfile = new int[height];
+        hat = new int[width];
+
+        for (int y = 0; y < height; y++) {
+            // an empty row has its left edge past its right one
+            final long mask = rowMasks[y];
+            leftProfile[y] = mask == 0 ? width : Long.numberOfTrailingZeros(mask);
+            rightProfile[y] = Long.SIZE - 1 - Long.numberOfLeadingZeros(mask);
+        }
+
+        for (final TPoint tp : body) {
+            hat[tp.x] = Math.max(hat[tp.x], tp.y + 1);
+        }
+    }
+
 
     /**
      * Alternate constructor, takes a String with the x,y body points
@@ -123,6 +231,24 @@ public class Piece {
         return body;
     }
 
+    /**
+     * Returns a pointer to the x offsets of the piece's body blocks,
+     * a primitive copy of the body for allocation-free loops.
+     * The i-th entry pairs with the i-th entry of getBodyY().
+     * The caller should not modify this array.
+     */
+    public int[] getBodyX() {
+        return bodyX;
+    }
+
+    /**
+     * Returns a pointer to the y offsets of the piece's body blocks.
+     * The caller should not modify this array.
+     */
+    public int[] getBodyY() {
+        return bodyY;
+    }
+
     /**
      * Returns a pointer to the piece's skirt. For each x value
      * across the piece, the skirt gives the lowest y value in the body.
@@ -133,6 +259,57 @@ public class Piece {
         return skirt;
     }
 
+    /**
+     * Returns a pointer to the piece's row masks: bit x of
+     * getRowMasks()[y] is set when (x, y) is in the body. Shifted left
+     * by the piece's x, a mask lines up with a row of a bitboard, so
+     * collisions and filled rows are a shift and an AND away.
+     * The caller should not modify this array.
+     */
+    public long[] getRowMasks() {
+        return rowMasks;
+    }
+
+    /**
+     * Returns a pointer to the piece's left profile: for each y value
+     * up the piece, the lowest x value in the body. A row with no
+     * blocks has the piece's width.
+     * The caller should not modify this array.
+     */
+    public int[] getLeftProfile() {
+        return leftProfile;
+    }
+
+    /**
+     * Returns a pointer to the piece's right profile: for each y value
+     * up the piece, the highest x value in the body. A row with no
+     * blocks has -1.
+     * The caller should not modify this array.
+     */
+    public int[] getRightProfile() {
+        return rightProfile;
+    }
+
+    /**
+     * Returns a pointer to the piece's hat, the top profile opposite
+     * the skirt: for each x value across the piece, the highest y value
+     * in the body plus one, or 0 for a column with no blocks. Dropped
+     * at y, the piece raises column x + i to at least y + getHat()[i].
+     * The caller should not modify this array.
+     */
+    public int[] getHat() {
+        return hat;
+    }
+
+    /**
+     * Returns the highest x at which the piece fits across a board of
+     * the given width, so that the legal x values are 0 up to this;
+     * negative if the piece is wider than the board.
+     */
+    public int getMaxX(int boardWidth) {
+        return boardWidth - width;
+    }
+
 
     /**
      * Returns a new piece that is 90 degrees counter-clockwise
@@ -159,14 +336,39 @@ public class Piece {
     /**
      * Returns a pre-computed piece that is 90 degrees counter-clockwise
      * rotated from the receiver.	 Fast because the piece is pre-computed.
-     * This only works on pieces set up by makeFastRotations(), and otherwise
-     * just returns null.
+     * This only works on pieces set up by makeFastRotations() -- those
+     * from getPieces() or a PieceSet -- and otherwise just returns null.
      */
     public Piece fastRotation() {
         return next;
     }
 
 
+    /**
+     * Returns the ID of the piece's shape: a small integer, the same
+     * for all the pieces with the same body points (in any order)
+     * and different for all others. IDs are handed out as shapes are
+     * first seen, so they are stable within a run only.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the canonical piece with the same shape as the receiver.
+     * For the rotations of the standard pieces this is the instance
+     * reachable from getPieces(), with its fast rotations set up;
+     * for other shapes it is the first piece interned, or linked by a
+     * PieceSet.
+     */
+    public Piece intern() {
+        // the standard rotations are registered first
+        getPieces();
+
+        return canonicalPiece(this);
+    }
+
+
     /**
      * Returns true if two pieces are the same --
      * their bodies contain the same points.
@@ -174,31 +376,23 @@ public class Piece {
      * same body arrays, since the points may not be
      * in the same order in the bodies. Used internally to detect
      * if two rotations are effectively the same.
+     * Pieces with the same points share a shape ID, so this is
+     * just a compare of the IDs.
      */
+    @Override
     public boolean equals(Object obj) {
-        // standard equals() technique 1
         if (obj == this) return true;
-
-        // standard equals() technique 2
-        // (null will be false)
         if (!(obj instanceof Piece)) return false;
-        Piece other = (Piece) obj;
-
-        if (other.body.length != this.body.length) {
-            return false;
-        }
-
-        sortArray(other.body);
-        sortArray(this.body);
 
-        return Arrays.deepEquals(other.body, this.body);
+        return ((Piece) obj).id == id;
     }
 
-    private void sortArray(TPoint[] prompt) {
-        Arrays.sort(prompt, (tp1, tp2) -> {
-            int cmp = Integer.compare(tp1.x, tp2.x);
-            return cmp == 0 ? Integer.compare(tp1.y, tp2.y) : cmp;
-        });
+    /**
+     * Returns the shape ID, consistent with equals().
+     */
+    @Override
+    public int hashCode() {
+        return id;
     }
 
 
@@ -231,21 +425,22 @@ public class Piece {
      * (provided code)
      */
     public static Piece[] getPieces() {
-        // lazy evaluation -- create static array if needed
-        if (Piece.pieces == null) {
-            // use makeFastRotations() to compute all the rotations for each piece
-            Piece.pieces = new Piece[]{
-                    makeFastRotations(new Piece(STICK_STR)),
-                    makeFastRotations(new Piece(L1_STR)),
-                    makeFastRotations(new Piece(L2_STR)),
-                    makeFastRotations(new Piece(S1_STR)),
-                    makeFastRotations(new Piece(S2_STR)),
-                    makeFastRotations(new Piece(SQUARE_STR)),
-                    makeFastRotations(new Piece(PYRAMID_STR)),
-            };
-        }
+        // lazy evaluation -- the holder class is initialized, once,
+        // the first time it is used, and the JVM makes that thread-safe
+        return StandardPieces.PIECES;
+    }
 
-        return Piece.pieces;
+    private static final class StandardPieces {
+        // use makeFastRotations() to compute all the rotations for each piece
+        static final Piece[] PIECES = {
+                makeFastRotations(new Piece(STICK_STR)),
+                makeFastRotations(new Piece(L1_STR)),
+                makeFastRotations(new Piece(L2_STR)),
+                makeFastRotations(new Piece(S1_STR)),
+                makeFastRotations(new Piece(S2_STR)),
+                makeFastRotations(new Piece(SQUARE_STR)),
+                makeFastRotations(new Piece(PYRAMID_STR)),
+        };
     }
 
 
@@ -255,35 +450,45 @@ public class Piece {
      * in a circular list. The list loops back to the root as soon
      * as possible. Returns the root piece. fastRotation() relies on the
      * pointer structure setup here.
+     * <p>
+     * The pieces linked are the canonical pieces of their shapes (see
+     * intern()), and the root returned is the canonical piece of the
+     * given one. Each rotation cycle is computed once: asking again
+     * for any shape on it, e.g. from another PieceSet, just returns
+     * the canonical piece. Safe to call from several threads.
      */
+    static Piece linkRotations(Piece piece) {
+        // the standard rotations are linked first
+        getPieces();
+        return makeFastRotations(piece);
+    }
+
 	/*
 	 Implementation: uses computeNextRotation()
-	 and Piece.equals() to detect when the rotations have gotten us back
-	 to the first piece.
+	 and the shape IDs to detect when the rotations have gotten us back
+	 to the first piece, which already has its next rotation set.
+	 Rotation is a one-to-one map of shapes, so no piece on a new cycle
+	 can already be linked. The pieces reach other threads through
+	 final fields -- PieceSet's, or the class initialization of
+	 getPieces() -- so the links are seen there as they were set.
 	*/
-    private static Piece makeFastRotations(Piece root) {
-        if (root.computeNextRotation().equals(root)) {
-            root.next = root;
-        } else {
-            Piece nextRoot = root.computeNextRotation();
-            root.next = nextRoot;
-
-            recMakeFastRotation(root, nextRoot);
-        }
-
-        return root;
-    }
-
+    private static Piece makeFastRotations(Piece piece) {
+        synchronized (canonical) {
+            final Piece root = canonicalPiece(piece);
+
+            Piece current = root;
+            while (current.next == null) {
+                current.next = canonicalPiece(current.computeNextRotation());
+                current = current.next;
+            }
 
-    private static void recMakeFastRotation(Piece root, Piece nextRoot) {
-        if (nextRoot.computeNextRotation().equals(root)) {
-            nextRoot.next = root;
-            return;
+            return root;
         }
+    }
 
-        nextRoot.next = nextRoot.computeNextRotation();
-        nextRoot = nextRoot.next;
-        recMakeFastRotation(root, nextRoot);
+    private static Piece canonicalPiece(Piece piece) {
+        Piece existing = canonical.putIfAbsent(piece.id, piece);
+        return existing != null ? existing : piece;
     }
 
 
@@ -0,0 +1,220 @@
+// PieceSet.java
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A set of pieces to play with -- the seven standard tetrominoes,
+ * or pentominoes and beyond, loaded from a file or built in code.
+ * Like Piece.getPieces(), a set holds the first rotation of each
+ * piece with all of its rotations linked for fastRotation(), so
+ * JTetris, the boards and the brains work with any set as is.
+ * <p>
+ * A piece set file has one piece per line, written as in Piece's
+ * string constants, x,y body points separated by spaces:
+ * <pre>
+ * # the plus and the U pentominoes
+ * 1 0  0 1  1 1  2 1  1 2
+ * 0 0  1 0  2 0  0 1  2 1
+ * </pre>
+ * Blank lines and lines starting with # are skipped.
+ * <p>
+ * A piece that is a rotation of an earlier one is dropped, so a set
+ * never offers the same piece twice; mirror images are different
+ * pieces, as L1 and L2 are. The pieces of a set are the canonical
+ * pieces of their shapes (see Piece.intern()), so each rotation cycle
+ * is computed once however many sets use it, and duplicates are found
+ * in one pass by shape ID.
+ * <p>
+ * JTetris plays the set in the file named by the tetris.pieces
+ * system property, or the standard set if it is not set, e.g.
+ * <pre>
+ * java -Dtetris.pieces=pentominoes.txt JTetris
+ * </pre>
+ * The property may also be polyominoes:n, for all the one-sided
+ * polyominoes of n blocks from PolyominoGenerator.
+ */
+public class PieceSet {
+    /**
+     * The system property naming the piece set file getDefault() loads.
+     */
+    public static final String PIECES_PROPERTY = "tetris.pieces";
+
+    /**
+     * The prefix of a tetris.pieces value asking for generated polyominoes.
+     */
+    public static final String POLYOMINOES_PREFIX = "polyominoes:";
+
+    private final String name;
+    private final Piece[] pieces;
+
+    private PieceSet(String name, Piece[] pieces) {
+        this.name = name;
+        this.pieces = pieces;
+    }
+
+
+    /**
+     * Returns the set of the seven standard pieces, in the order
+     * of Piece.getPieces().
+     */
+    public static PieceSet standard() {
+        return of("standard", Piece.getPieces());
+    }
+
+    /**
+     * Returns the set loaded from the file named by the tetris.pieces
+     * system property, the generated polyominoes it asks for, or the
+     * standard set if it is not set.
+     */
+    public static PieceSet getDefault() {
+        String path = System.getProperty(PIECES_PROPERTY);
+        if (path == null) {
+            return standard();
+        }
+
+        if (path.startsWith(POLYOMINOES_PREFIX)) {
+            return polyominoes(Integer.parseInt(path.substring(POLYOMINOES_PREFIX.length())));
+        }
+
+        try {
+            return load(Paths.get(path));
+        } catch (IOException e) {
+            throw new RuntimeException("Could not load piece set " + path, e);
+        }
+    }
+
+    /**
+     * Returns the set of all the one-sided polyominoes of the given
+     * number of blocks -- for 4, the standard pieces in another order.
+     */
+    public static PieceSet polyominoes(int size) {
+        return of(size + "-ominoes", PolyominoGenerator.generate(size, PolyominoGenerator.Kind.ONE_SIDED));
+    }
+
+    /**
+     * Returns a set of the given pieces, in the given order, with
+     * their rotations linked. Pieces that are rotations of an earlier
+     * one are dropped.
+     */
+    public static PieceSet of(String name, Piece... pieces) {
+        List<Piece> roots = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>();
+
+        for (final Piece piece : pieces) {
+            Piece root = Piece.linkRotations(piece);
+            if (seen.contains(root.getId())) {
+                continue;
+            }
+
+            Piece current = root;
+            do {
+                seen.add(current.getId());
+                current = current.fastRotation();
+            } while (current != root);
+
+            roots.add(root);
+        }
+
+        return new PieceSet(name, roots.toArray(new Piece[0]));
+    }
+
+    /**
+     * Loads a set from a piece set file, named after the file.
+     */
+    public static PieceSet load(Path path) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path)) {
+            return parse(path.getFileName().toString(), reader);
+        }
+    }
+
+    /**
+     * Parses a set from the text of a piece set file.
+     */
+    public static PieceSet parse(String name, String text) {
+        try {
+            return parse(name, new StringReader(text));
+        } catch (IOException e) {
+            // a StringReader does not throw
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static PieceSet parse(String name, Reader reader) throws IOException {
+        List<Piece> pieces = new ArrayList<>();
+        BufferedReader lines = new BufferedReader(reader);
+
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            try {
+                pieces.add(new Piece(line));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException(name + ", line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+
+        return of(name, pieces.toArray(new Piece[0]));
+    }
+
+
+    /**
+     * Returns the name of the set.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of pieces in the set, not counting rotations.
+     */
+    public int size() {
+        return pieces.length;
+    }
+
+    /**
+     * Returns a pointer to the first rotation of each piece of the set.
+     * The next (counterclockwise) rotation can be obtained from each
+     * piece with fastRotation(). The caller should not modify this array.
+     */
+    public Piece[] getPieces() {
+        return pieces;
+    }
+
+    /**
+     * Returns the width of the widest rotation of any piece of the
+     * set; a board must be at least this wide to play every rotation.
+     */
+    public int getMaxWidth() {
+        int maxWidth = 0;
+
+        for (final Piece root : pieces) {
+            Piece current = root;
+            do {
+                maxWidth = Math.max(maxWidth, current.getWidth());
+                current = current.fastRotation();
+            } while (current != root);
+        }
+
+        return maxWidth;
+    }
+
+    public String toString() {
+        return name + " (" + pieces.length + " pieces)";
+    }
+}
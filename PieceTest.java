@@ -279,4 +279,152 @@ public class PieceTest extends TestCase {
         assertTrue(pyr1.equals(pieces[Piece.PYRAMID].fastRotation().fastRotation().fastRotation().fastRotation()));
         assertTrue(pyr2.equals(pieces[Piece.PYRAMID].fastRotation().fastRotation().fastRotation().fastRotation().fastRotation()));
     }
+
+    public void testShapeIds() {
+        // same points in another order: same shape
+        Piece shuffled = new Piece("1 1  0 0  2 0  1 0");
+        assertEquals(pyr1.getId(), shuffled.getId());
+        assertEquals(pyr1.hashCode(), shuffled.hashCode());
+        assertTrue(pyr1.equals(shuffled));
+
+        // equals() no longer sorts the bodies in place
+        assertEquals(new TPoint(1, 1), shuffled.getBody()[0]);
+
+        // every rotation of every standard piece has its own ID
+        Set<Integer> ids = new HashSet<>();
+        int rotations = 0;
+        for (final Piece root : pieces) {
+            Piece current = root;
+            do {
+                ids.add(current.getId());
+                rotations++;
+                current = current.fastRotation();
+            } while (current != root);
+        }
+        assertEquals(19, rotations);
+        assertEquals(19, ids.size());
+
+        // the canonical pieces are the linked rotations
+        assertSame(pieces[Piece.PYRAMID], shuffled.intern());
+        assertSame(pieces[Piece.L1].fastRotation(), L2.intern());
+        assertNotNull(L3.intern().fastRotation());
+
+        Piece odd = new Piece("0 0  5 5");
+        assertSame(odd, odd.intern());
+        assertSame(odd, new Piece("5 5  0 0").intern());
+    }
+
+    public void testRowMasksAndProfiles() {
+        // pyr4 is 0 0  0 1  0 2  1 1: the point of the pyramid to the right
+        assertTrue(Arrays.equals(new long[]{0b01, 0b11, 0b01}, pyr4.getRowMasks()));
+        assertTrue(Arrays.equals(new int[]{0, 0, 0}, pyr4.getLeftProfile()));
+        assertTrue(Arrays.equals(new int[]{0, 1, 0}, pyr4.getRightProfile()));
+        assertTrue(Arrays.equals(new int[]{3, 2}, pyr4.getHat()));
+
+        assertTrue(Arrays.equals(new long[]{0b0011, 0b0110}, s.getRowMasks()));
+        assertTrue(Arrays.equals(new int[]{0, 1}, s.getLeftProfile()));
+        assertTrue(Arrays.equals(new int[]{1, 2}, s.getRightProfile()));
+        assertTrue(Arrays.equals(new int[]{1, 2, 2}, s.getHat()));
+
+        assertTrue(Arrays.equals(new long[]{0b1111}, stickRotated.getRowMasks()));
+        assertTrue(Arrays.equals(new int[]{1, 1, 1, 1}, stickRotated.getHat()));
+        assertEquals(6, stickRotated.getMaxX(10));
+        assertEquals(9, stick.getMaxX(10));
+        assertEquals(-1, stickRotated.getMaxX(3));
+
+        // a row or column with no blocks
+        Piece odd = new Piece("0 0  2 2");
+        assertTrue(Arrays.equals(new long[]{0b001, 0, 0b100}, odd.getRowMasks()));
+        assertTrue(Arrays.equals(new int[]{0, 3, 2}, odd.getLeftProfile()));
+        assertTrue(Arrays.equals(new int[]{0, -1, 2}, odd.getRightProfile()));
+        assertTrue(Arrays.equals(new int[]{1, 0, 3}, odd.getHat()));
+
+        // every fast rotation carries its own tables
+        for (final Piece root : pieces) {
+            Piece current = root;
+            do {
+                assertEquals(current.getHeight(), current.getRowMasks().length);
+                assertEquals(current.getWidth(), current.getHat().length);
+                current = current.fastRotation();
+            } while (current != root);
+        }
+
+        try {
+            new Piece("1 1  1 2");
+            fail("a body off the origin");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testPieceSet() {
+        PieceSet standard = PieceSet.standard();
+        assertEquals(7, standard.size());
+        assertTrue(Arrays.equals(pieces, standard.getPieces()));
+        assertEquals(4, standard.getMaxWidth());
+
+        PieceSet set = PieceSet.parse("test",
+                "# the plus, the U, and the U again rotated\n"
+                        + "1 0  0 1  1 1  2 1  1 2\n"
+                        + "\n"
+                        + "0 0  1 0  2 0  0 1  2 1\n"
+                        + "0 0  1 0  0 1  0 2  1 2\n"
+                        + Piece.L1_STR + "\n");
+        assertEquals(3, set.size());
+        assertEquals(3, set.getMaxWidth());
+
+        // the plus is its own rotation, the U has four
+        Piece plus = set.getPieces()[0];
+        assertSame(plus, plus.fastRotation());
+        Piece u = set.getPieces()[1];
+        assertSame(u, u.fastRotation().fastRotation().fastRotation().fastRotation());
+        assertTrue(!u.equals(u.fastRotation()));
+
+        // shapes are linked once and shared
+        assertSame(pieces[Piece.L1], set.getPieces()[2]);
+        assertSame(u, PieceSet.parse("again", "0 0  1 0  2 0  0 1  2 1").getPieces()[0]);
+
+        try {
+            PieceSet.parse("bad", "0 0  1 0\n0 0  1 x\n");
+            fail("a bad point");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().contains("line 2"));
+        }
+    }
+
+    public void testPolyominoes() {
+        // the known counts for 1 to 8 blocks
+        int[] fixed = {1, 2, 6, 19, 63, 216, 760, 2725};
+        int[] oneSided = {1, 1, 2, 7, 18, 60, 196, 704};
+        int[] free = {1, 1, 2, 5, 12, 35, 108, 369};
+        for (int n = 1; n <= 8; n++) {
+            assertEquals(fixed[n - 1], PolyominoGenerator.count(n, PolyominoGenerator.Kind.FIXED));
+            assertEquals(oneSided[n - 1], PolyominoGenerator.count(n, PolyominoGenerator.Kind.ONE_SIDED));
+            assertEquals(free[n - 1], PolyominoGenerator.count(n, PolyominoGenerator.Kind.FREE));
+        }
+
+        // the one-sided tetrominoes are the standard pieces
+        PieceSet tetrominoes = PieceSet.polyominoes(4);
+        assertEquals(7, tetrominoes.size());
+        Set<Piece> standard = new HashSet<>(Arrays.asList(pieces));
+        for (final Piece piece : tetrominoes.getPieces()) {
+            Piece current = piece;
+            while (!standard.contains(current)) {
+                current = current.fastRotation();
+                assertTrue(current != piece);
+            }
+        }
+
+        // every fixed domino and tromino, each with its rotations linked
+        Piece[] small = PolyominoGenerator.generate(2, 3, PolyominoGenerator.Kind.FIXED);
+        assertEquals(2 + 6, small.length);
+        assertEquals(8, new HashSet<>(Arrays.asList(small)).size());
+        assertSame(small[1], small[0].fastRotation());
+        assertSame(small[0], small[1].fastRotation());
+
+        try {
+            PolyominoGenerator.generate(PolyominoGenerator.MAX_SIZE + 1, PolyominoGenerator.Kind.FREE);
+            fail("too large a polyomino");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
 }
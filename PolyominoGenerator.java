@@ -0,0 +1,293 @@
+// PolyominoGenerator.java
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Enumerates all the polyominoes -- pieces of n blocks joined edge
+ * to edge -- of given sizes, as Pieces with their rotations linked,
+ * e.g. to play or stress-test the brains with all the pentominoes:
+ * <pre>
+ * PieceSet pentominoes = PieceSet.of("pentominoes",
+ *         PolyominoGenerator.generate(5, PolyominoGenerator.Kind.ONE_SIDED));
+ * </pre>
+ * A polyomino is encoded in a long: the blocks of its bounding box,
+ * row by row, in the low 58 bits, and the box width in the top 6.
+ * Each one is kept in canonical form, the smallest code over its
+ * rotations and reflections, so that equal shapes get equal codes.
+ * <p>
+ * The polyominoes of n + 1 blocks are grown from those of n blocks by
+ * adding each free neighbour cell in turn; every polyomino has a block
+ * whose removal leaves another one, so this finds them all. Each level
+ * is expanded in parallel, with the new codes collected in a
+ * concurrent hash set, which drops the many ways of growing the same
+ * shape. The results are sorted by code, so they come out in the same
+ * order on every run.
+ * <p>
+ * Codes fit polyominoes of up to 14 blocks; 14 blocks already means
+ * some 900,000 free polyominoes.
+ */
+public class PolyominoGenerator {
+    /**
+     * The largest polyomino size generate() accepts.
+     */
+    public static final int MAX_SIZE = 14;
+
+    /**
+     * Which polyominoes count as the same.
+     */
+    public enum Kind {
+        /**
+         * Every orientation is a polyomino of its own: the domino
+         * lying and standing are two.
+         */
+        FIXED,
+        /**
+         * Rotations are the same polyomino, mirror images are not --
+         * the pieces of a Tetris game, where L1 and L2 are different.
+         */
+        ONE_SIDED,
+        /**
+         * Rotations and mirror images are all the same polyomino.
+         */
+        FREE
+    }
+
+    private static final int WIDTH_SHIFT = 58;
+    private static final long CELLS = (1L << WIDTH_SHIFT) - 1;
+
+    // the eight symmetries of the square: the four rotations first,
+    // then the four reflections
+    private static final int[][] SYMMETRIES = {
+            {1, 0, 0, 1}, {0, -1, 1, 0}, {-1, 0, 0, -1}, {0, 1, -1, 0},
+            {-1, 0, 0, 1}, {0, 1, 1, 0}, {1, 0, 0, -1}, {0, -1, -1, 0},
+    };
+
+
+    /**
+     * Returns all the polyominoes of the given size, as the canonical
+     * pieces of their shapes with their rotations linked. For FIXED
+     * every orientation is returned; for ONE_SIDED and FREE, one
+     * orientation of each. Throws IllegalArgumentException if the size
+     * is not between 1 and MAX_SIZE.
+     */
+    public static Piece[] generate(int size, Kind kind) {
+        return generate(size, size, kind);
+    }
+
+    /**
+     * Returns all the polyominoes from minSize up to maxSize blocks,
+     * the smaller ones first, as generate(int, Kind) does for one size.
+     */
+    public static Piece[] generate(int minSize, int maxSize, Kind kind) {
+        if (minSize < 1 || minSize > maxSize || maxSize > MAX_SIZE) {
+            throw new IllegalArgumentException("Polyomino sizes must be from 1 to " + MAX_SIZE
+                    + ": " + minSize + " to " + maxSize);
+        }
+
+        List<Piece> pieces = new ArrayList<>();
+
+        // the monomino, then one level of growth per size
+        long[] level = {1L << WIDTH_SHIFT | 1};
+        for (int size = 1; size <= maxSize; size++) {
+            if (size > 1) {
+                level = grow(level);
+            }
+
+            if (size >= minSize) {
+                for (final long code : orientations(level, kind)) {
+                    pieces.add(Piece.linkRotations(new Piece(decode(code))));
+                }
+            }
+        }
+
+        return pieces.toArray(new Piece[0]);
+    }
+
+    /**
+     * Returns the number of polyominoes of the given size, without
+     * making Pieces of them.
+     */
+    public static int count(int size, Kind kind) {
+        if (size < 1 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("Polyomino sizes must be from 1 to " + MAX_SIZE + ": " + size);
+        }
+
+        long[] level = {1L << WIDTH_SHIFT | 1};
+        for (int i = 1; i < size; i++) {
+            level = grow(level);
+        }
+
+        return orientations(level, kind).length;
+    }
+
+
+    /*
+     Returns the free polyominoes one block larger than the given
+     ones, in canonical form, sorted.
+    */
+    private static long[] grow(long[] level) {
+        Set<Long> next = ConcurrentHashMap.newKeySet(level.length * 4);
+
+        Arrays.stream(level).parallel().forEach(code -> {
+            final int width = width(code);
+            final int height = height(code);
+            final int size = Long.bitCount(code & CELLS);
+
+            // room for the new block, which goes last
+            int[] xs = new int[size + 1];
+            int[] ys = new int[size + 1];
+            int[] scratchX = new int[size + 1];
+            int[] scratchY = new int[size + 1];
+            decode(code, xs, ys);
+
+            for (int i = 0; i < size; i++) {
+                for (int direction = 0; direction < 4; direction++) {
+                    final int x = xs[i] + (direction == 0 ? 1 : direction == 1 ? -1 : 0);
+                    final int y = ys[i] + (direction == 2 ? 1 : direction == 3 ? -1 : 0);
+
+                    if (!contains(code, width, height, x, y)) {
+                        xs[size] = x;
+                        ys[size] = y;
+                        next.add(canonical(xs, ys, scratchX, scratchY, SYMMETRIES.length));
+                    }
+                }
+            }
+        });
+
+        return sorted(next);
+    }
+
+    /*
+     Returns the codes of the polyominoes of the given kind among the
+     given free ones, sorted: each orientation for FIXED, the distinct
+     ones up to rotation for ONE_SIDED -- the shape and its mirror
+     image, unless they are rotations of each other.
+    */
+    private static long[] orientations(long[] free, Kind kind) {
+        if (kind == Kind.FREE) {
+            return free;
+        }
+
+        Set<Long> codes = ConcurrentHashMap.newKeySet(free.length * (kind == Kind.FIXED ? 8 : 2));
+
+        Arrays.stream(free).parallel().forEach(code -> {
+            final int size = Long.bitCount(code & CELLS);
+            int[] xs = new int[size];
+            int[] ys = new int[size];
+            int[] scratchX = new int[size];
+            int[] scratchY = new int[size];
+            decode(code, xs, ys);
+
+            if (kind == Kind.FIXED) {
+                for (final int[] symmetry : SYMMETRIES) {
+                    codes.add(transform(symmetry, xs, ys, scratchX, scratchY));
+                }
+            } else {
+                // the rotation-canonical codes of the shape and its mirror image
+                codes.add(canonical(xs, ys, scratchX, scratchY, 4));
+                for (int i = 0; i < size; i++) {
+                    xs[i] = -xs[i];
+                }
+                codes.add(canonical(xs, ys, scratchX, scratchY, 4));
+            }
+        });
+
+        return sorted(codes);
+    }
+
+    private static long[] sorted(Set<Long> codes) {
+        long[] result = new long[codes.size()];
+        int i = 0;
+        for (final long code : codes) {
+            result[i++] = code;
+        }
+
+        Arrays.parallelSort(result);
+        return result;
+    }
+
+
+    /*
+     The smallest code of the blocks under the first symmetries of the
+     square -- 4 for the rotations, 8 to take reflections too.
+    */
+    private static long canonical(int[] xs, int[] ys, int[] scratchX, int[] scratchY, int symmetries) {
+        long best = Long.MAX_VALUE;
+        for (int s = 0; s < symmetries; s++) {
+            best = Math.min(best, transform(SYMMETRIES[s], xs, ys, scratchX, scratchY));
+        }
+        return best;
+    }
+
+    private static long transform(int[] symmetry, int[] xs, int[] ys, int[] scratchX, int[] scratchY) {
+        for (int i = 0; i < xs.length; i++) {
+            scratchX[i] = symmetry[0] * xs[i] + symmetry[1] * ys[i];
+            scratchY[i] = symmetry[2] * xs[i] + symmetry[3] * ys[i];
+        }
+        return encode(scratchX, scratchY);
+    }
+
+    /*
+     Encodes the blocks, moved so that the bounding box starts at 0,0.
+    */
+    private static long encode(int[] xs, int[] ys) {
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        for (int i = 0; i < xs.length; i++) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+        }
+
+        final int width = maxX - minX + 1;
+        long cells = 0;
+        for (int i = 0; i < xs.length; i++) {
+            cells |= 1L << ((ys[i] - minY) * width + xs[i] - minX);
+        }
+
+        return (long) width << WIDTH_SHIFT | cells;
+    }
+
+    private static int width(long code) {
+        return (int) (code >>> WIDTH_SHIFT);
+    }
+
+    private static int height(long code) {
+        final int highest = Long.SIZE - 1 - Long.numberOfLeadingZeros(code & CELLS);
+        return highest / width(code) + 1;
+    }
+
+    private static boolean contains(long code, int width, int height, int x, int y) {
+        return x >= 0 && x < width && y >= 0 && y < height && (code & 1L << (y * width + x)) != 0;
+    }
+
+    private static void decode(long code, int[] xs, int[] ys) {
+        final int width = width(code);
+
+        int i = 0;
+        for (long cells = code & CELLS; cells != 0; cells &= cells - 1) {
+            final int bit = Long.numberOfTrailingZeros(cells);
+            xs[i] = bit % width;
+            ys[i] = bit / width;
+            i++;
+        }
+    }
+
+    private static TPoint[] decode(long code) {
+        final int size = Long.bitCount(code & CELLS);
+        int[] xs = new int[size];
+        int[] ys = new int[size];
+        decode(code, xs, ys);
+
+        TPoint[] points = new TPoint[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = new TPoint(xs[i], ys[i]);
+        }
+        return points;
+    }
+}
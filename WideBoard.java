@@ -0,0 +1,303 @@
+// WideBoard.java
+
+import java.util.Arrays;
+
+/**
+ * A bitboard {@link Board} implementation for boards of any width,
+ * meant for the very wide boards (64 to thousands of columns) used in
+ * stress tests and AI experiments. Board.create() picks it instead of
+ * BitBoard for boards wider than 64.
+ *
+ * <p>
+ * Each row is a bitset of ceil(width / 64) consecutive words in
+ * rows[], word k holding the columns 64k to 64k + 63. Full-row tests,
+ * row compaction in clearRows() and the height walk after it work a
+ * word at a time, so they cost width / 64 operations per row instead
+ * of width. Full-row tests stop at the first word with a hole, which
+ * on a real board is almost always the first word.
+ *
+ * <p>
+ * Undo, checkpoints, the hash, clearRows(), insertGarbage(), move(),
+ * checkPlace() and enumeratePlacements() come from AbstractBoard,
+ * which keeps the rows in a ring buffer and works on them through
+ * the row tests here: rowFull(), rowFullWith() and rowHits() look at
+ * the one or two words a piece spans, or stop at the first word with
+ * a hole.
+ */
+public class WideBoard extends AbstractBoard {
+    private static final int WORD_SHIFT = 6;
+
+    private final long lastWord;
+
+    // Columns whose top block was already found, for updateHeights()
+    private final long[] seen;
+
+
+    /**
+     * Creates an empty board of the given width and height
+     * measured in blocks.
+     */
+    public WideBoard(int width, int height) {
+        super(checkWidth(width), height, wordCount(width));
+
+        this.lastWord = -1L >>> (words * Long.SIZE - width);
+        this.seen = new long[words];
+    }
+
+    /**
+     * Returns a new WideBoard holding the blocks this board holds now.
+     * See Board.
+     */
+    public Board copy() {
+        return copyInto(new WideBoard(width, height));
+    }
+
+    private static int checkWidth(int width) {
+        if (width < 1) {
+            throw new IllegalArgumentException("Board width must be at least 1: " + width);
+        }
+
+        return width;
+    }
+
+    private static int wordCount(int width) {
+        return (width + Long.SIZE - 1) >>> WORD_SHIFT;
+    }
+
+
+    /**
+     * Checks the board for internal consistency -- used
+     * for debugging.
+     */
+    public void sanityCheck() {
+        if (DEBUG) {
+            int currMaxHeight = 0;
+
+            for (int y = 0; y < rowCapacity(); y++) {
+                if ((word(y, words - 1) & ~lastWord) != 0) {
+                    throw new RuntimeException("Incorrect rows!");
+                }
+            }
+
+            if (computeHash() != hash) {
+                throw new RuntimeException("Incorrect hash!");
+            }
+
+            for (int x = 0; x < width; x++) {
+                int currHeight = 0;
+                for (int y = 0; y < rowCapacity(); y++) {
+                    if (filled(x, y)) currHeight = y + 1;
+                }
+
+                if (heights[x] != currHeight) {
+                    throw new RuntimeException("Incorrect heights!");
+                }
+                currMaxHeight = Math.max(currMaxHeight, currHeight);
+            }
+
+            if (maxHeight != currMaxHeight) {
+                throw new RuntimeException("Incorrect max height!");
+            }
+
+            if (incorrectFeatures()) {
+                throw new RuntimeException("Incorrect features!");
+            }
+        }
+    }
+
+
+    /**
+     * Returns the number of filled blocks in
+     * the given row.
+     */
+    public int getRowWidth(int y) {
+        int rowWidth = 0;
+
+        for (int k = 0; k < words; k++) {
+            rowWidth += Long.bitCount(word(y, k));
+        }
+
+        return rowWidth;
+    }
+
+
+    /**
+     * Returns true if the given block is filled in the board.
+     * Blocks outside of the valid width/height area
+     * always return true.
+     */
+    public boolean getGrid(int x, int y) {
+        return !inBounds(x, y) || filled(x, y);
+    }
+
+    // the shift only uses the low 6 bits of x -- its place in the word
+    boolean filled(int x, int y) {
+        return (word(y, x >>> WORD_SHIFT) & (1L << x)) != 0;
+    }
+
+    private boolean inBounds(int x, int y) {
+        return x >= 0 && x < this.width && y >= 0 && y < this.height;
+    }
+
+    long fullWord(int k) {
+        return k == words - 1 ? lastWord : -1L;
+    }
+
+    boolean rowFull(int y) {
+        if ((y & ~rowMask) != 0) {
+            return false;
+        }
+
+        final int first = slot(y);
+        for (int i = first; i < first + words - 1; i++) {
+            if (rows[i] != -1L) {
+                return false;
+            }
+        }
+
+        return rows[first + words - 1] == lastWord;
+    }
+
+    boolean rowHits(int y, long shape, int x) {
+        final int first = x >>> WORD_SHIFT;
+        final int shift = x & (Long.SIZE - 1);
+
+        if ((word(y, first) & shape << shift) != 0) {
+            return true;
+        }
+
+        return shift != 0 && first + 1 < words && (word(y, first + 1) & shape >>> (Long.SIZE - shift)) != 0;
+    }
+
+    // the mask is at most a piece wide, so it spans at most two words
+    boolean rowFullWith(int y, long shape, int x) {
+        final int first = x >>> WORD_SHIFT;
+        final int shift = x & (Long.SIZE - 1);
+
+        for (int k = 0; k < words; k++) {
+            long mask = word(y, k);
+
+            if (k == first) {
+                mask |= shape << shift;
+            } else if (k == first + 1 && shift != 0) {
+                mask |= shape >>> (Long.SIZE - shift);
+            }
+
+            if (mask != fullWord(k)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    void flipCell(int x, int y) {
+        final int k = x >>> WORD_SHIFT;
+
+        setWord(y, k, word(y, k) ^ 1L << x);
+    }
+
+
+    /**
+     * Attempts to add the body of a piece to the board.
+     * Copies the piece blocks into the board grid.
+     * Returns PLACE_OK for a regular placement, or PLACE_ROW_FILLED
+     * for a regular placement that causes at least one row to be filled.
+     *
+     * <p>Error cases:
+     * A placement may fail in two ways. First, if part of the piece may falls out
+     * of bounds of the board, PLACE_OUT_BOUNDS is returned.
+     * Or the placement may collide with existing blocks in the grid
+     * in which case PLACE_BAD is returned.
+     * In both error cases, the board may be left in an invalid
+     * state. The client can use undo(), to recover the valid, pre-place state.
+     */
+    public int place(Piece piece, int x, int y) {
+        if (!committed) throw new RuntimeException("place commit problem");
+
+        committed = false;
+
+        int result = PLACE_OK;
+
+        final int[] bodyX = piece.getBodyX();
+        final int[] bodyY = piece.getBodyY();
+
+        if (outOfBounds(piece, x, y)) {
+            result = PLACE_OUT_BOUNDS;
+        } else if (collides(piece.getRowMasks(), x, y)) {
+            result = PLACE_BAD;
+        } else {
+            int newMaxHeight = maxHeight;
+            ensureRows(y + piece.getHeight());
+            saveHash();
+
+            for (int i = 0; i < bodyX.length; i++) {
+                final int px = x + bodyX[i];
+                final int py = y + bodyY[i];
+
+                flipCell(px, py);
+
+                // adding blocks can only raise the heights
+                if (py >= heights[px]) {
+                    setHeight(px, py + 1);
+                }
+                newMaxHeight = Math.max(newMaxHeight, py + 1);
+            }
+
+            for (int i = 0; i < bodyY.length; i++) {
+                if (rowFull(y + bodyY[i])) {
+                    result = PLACE_ROW_FILLED;
+                    markFull(y + bodyY[i]);
+                }
+            }
+
+            setMaxHeight(newMaxHeight);
+            sanityCheck();
+        }
+
+        return result;
+    }
+
+
+    /*
+     Recomputes the heights after rows were cleared, walking the rows
+     top-down from the given bound as in BitBoard, with one mask of
+     already seen columns per word.
+    */
+    void updateHeights(int topBound) {
+        int newMaxHeight = 0;
+        int unseen = width;
+
+        Arrays.fill(seen, 0);
+        for (int y = topBound - 1; y >= 0 && unseen > 0; y--) {
+            final int first = slot(y);
+
+            for (int k = 0; k < words; k++) {
+                long newTops = rows[first + k] & ~seen[k];
+                if (newTops == 0) {
+                    continue;
+                }
+
+                seen[k] |= newTops;
+                unseen -= Long.bitCount(newTops);
+
+                if (newMaxHeight == 0) {
+                    newMaxHeight = y + 1;
+                }
+
+                while (newTops != 0) {
+                    setHeight((k << WORD_SHIFT) + Long.numberOfTrailingZeros(newTops), y + 1);
+                    newTops &= newTops - 1;
+                }
+            }
+        }
+
+        for (int k = 0; k < words; k++) {
+            for (long empty = fullWord(k) & ~seen[k]; empty != 0; empty &= empty - 1) {
+                setHeight((k << WORD_SHIFT) + Long.numberOfTrailingZeros(empty), 0);
+            }
+        }
+
+        setMaxHeight(newMaxHeight);
+    }
+}